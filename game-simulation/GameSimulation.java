@@ -1,43 +1,555 @@
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.random.RandomGenerator;
 
 public class GameSimulation implements Runnable {
-    public class GameCharacter implements Runnable {
+    // published by the character that walked into an occupied square, and consumed by the simulation
+    // the characters are pooled, so each one comes with the generation it had in the collision: a character whose generation
+    // has moved on since has been despawned, and may be living another life elsewhere on the board
+    public record Collision(GameCharacter mover, int moverGeneration, GameCharacter occupant, int occupantGeneration, int x, int y) {
+        // whether either character has been despawned since the collision
+        public boolean stale() {
+            return mover.generation() != moverGeneration || occupant.generation() != occupantGeneration;
+        }
+    }
+
+    // counters for the game, kept in LongAdders so that the characters never contend on a shared counter
+    // the reporter only reads the sums, so reporting does not perturb the characters
+    public static class GameMetrics {
+        public final LongAdder moves;
+        public final LongAdder collisions;
+        public final LongAdder spawns;
+        public final LongAdder despawns;
+
+        // spawns served from the character pool, and spawns skipped because the population was at its cap
+        public final LongAdder recycled;
+        public final LongAdder throttled;
+
+        // pooled mode: steps fired by the timing wheel, and how late they fired in total
+        public final LongAdder scheduledSteps;
+        public final LongAdder stepLatenessNanos;
+
+        public GameMetrics() {
+            moves = new LongAdder();
+            collisions = new LongAdder();
+            spawns = new LongAdder();
+            despawns = new LongAdder();
+            recycled = new LongAdder();
+            throttled = new LongAdder();
+            scheduledSteps = new LongAdder();
+            stepLatenessNanos = new LongAdder();
+        }
+
+        // prints the rate of every counter every period ms while the simulation runs
+        public Runnable reporter(GameSimulation simulation, long period) {
+            return () -> {
+                long lastMoves = moves.sum();
+                long lastCollisions = collisions.sum();
+                long lastSpawns = spawns.sum();
+                long lastDespawns = despawns.sum();
+                long lastSteps = scheduledSteps.sum();
+                long lastLateness = stepLatenessNanos.sum();
+                long lastTime = System.nanoTime();
+
+                while (simulation.running) {
+                    try {
+                        Thread.sleep(period);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    long nowMoves = moves.sum();
+                    long nowCollisions = collisions.sum();
+                    long nowSpawns = spawns.sum();
+                    long nowDespawns = despawns.sum();
+                    long nowSteps = scheduledSteps.sum();
+                    long nowLateness = stepLatenessNanos.sum();
+                    long now = System.nanoTime();
+                    double seconds = (now - lastTime) / 1e9;
+
+                    System.out.printf("moves/s: %.0f, collisions/s: %.0f, spawns/s: %.0f, despawns/s: %.0f, live characters: %d%n",
+                        (nowMoves - lastMoves) / seconds, (nowCollisions - lastCollisions) / seconds,
+                        (nowSpawns - lastSpawns) / seconds, (nowDespawns - lastDespawns) / seconds, simulation.population.get());
+
+                    System.out.printf("    recycled spawns: %d, throttled spawns: %d%n", recycled.sum(), throttled.sum());
+
+                    System.out.printf("    live board chunks: %d (%d allocated, %d retired)%n", simulation.board.liveChunks.get(),
+                        simulation.board.allocatedChunks.sum(), simulation.board.retiredChunks.sum());
+
+                    if (nowSteps > lastSteps) {
+                        System.out.printf("    mean step lateness: %.0f us%n", (nowLateness - lastLateness) / 1000.0 / (nowSteps - lastSteps));
+                    }
+
+                    lastMoves = nowMoves;
+                    lastCollisions = nowCollisions;
+                    lastSpawns = nowSpawns;
+                    lastDespawns = nowDespawns;
+                    lastSteps = nowSteps;
+                    lastLateness = nowLateness;
+                    lastTime = now;
+                }
+            };
+        }
+    }
+
+    // hashed timing wheel holding the pending steps of every character in pooled mode
+    //  - time is cut into ticks of 1 ms, and the wheel has WHEEL_SIZE buckets: a task due at tick t lives in bucket t % WHEEL_SIZE
+    //    and is skipped by the earlier revolutions of the wheel
+    //  - tasks are intrusive: the task itself is the list node, so scheduling never allocates
+    //  - any thread schedules by pushing onto a lock-free stack (O(1)); only the timer thread touches the buckets
+    //  - due tasks are handed to the worker threads in batches of BATCH_SIZE
+    public static class TimingWheel implements Runnable {
+        public abstract static class Task {
+            // tick at which the task is due, and the next task in the stack or bucket that holds this one
+            long deadline;
+            Task next;
+
+            // called on a worker thread once the task is due
+            protected abstract void fire(TimingWheel wheel);
+        }
+
+        private static final int WHEEL_SIZE = 512;
+        private static final int BATCH_SIZE = 256;
+
+        private final long tickNanos;
+        private final long startNanos;
+        private final Task buckets[];
+        private final AtomicReference<Task> incoming;
+        private final ExecutorService workers;
+        private final Thread timer;
+
+        // last tick processed by the timer thread
+        private volatile long currentTick;
+        private volatile boolean running;
+
+        public TimingWheel(int threads, long tickNanos) {
+            this.tickNanos = tickNanos;
+            this.startNanos = System.nanoTime();
+            this.buckets = new Task[WHEEL_SIZE];
+            this.incoming = new AtomicReference<>();
+            this.workers = Executors.newFixedThreadPool(threads);
+            this.currentTick = -1;
+            this.running = true;
+
+            this.timer = new Thread(this, "timing-wheel");
+            this.timer.setDaemon(true);
+            this.timer.start();
+        }
+
+        public long now() {
+            return (System.nanoTime() - startNanos) / tickNanos;
+        }
+
+        // nanoTime at which the given tick starts, used to measure how late tasks fire
+        public long nanoTimeOf(long tick) {
+            return startNanos + tick * tickNanos;
+        }
+
+        // schedules the task to fire at the given tick. a task must not be scheduled again before it has fired
+        public void schedule(Task task, long deadline) {
+            task.deadline = deadline;
+
+            Task top;
+
+            do {
+                top = incoming.get();
+                task.next = top;
+            } while (!incoming.compareAndSet(top, task));
+        }
+
+        @Override
+        public void run() {
+            long tick = 0;
+            Task batch[] = new Task[BATCH_SIZE];
+
+            while (running) {
+                // wait for the start of the next tick. if we are behind, catch up without sleeping
+                long wait = nanoTimeOf(tick + 1) - System.nanoTime();
+
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+
+                // move the newly scheduled tasks into their buckets. tasks that are already due go into the current bucket
+                Task t = incoming.getAndSet(null);
+
+                while (t != null) {
+                    Task following = t.next;
+                    int bucket = (int) (Math.max(t.deadline, tick) & (WHEEL_SIZE - 1));
+
+                    t.next = buckets[bucket];
+                    buckets[bucket] = t;
+                    t = following;
+                }
+
+                // fire every task of the current bucket whose revolution has come, keep the others
+                int bucket = (int) (tick & (WHEEL_SIZE - 1));
+                Task remaining = null;
+                int size = 0;
+                t = buckets[bucket];
+
+                while (t != null) {
+                    Task following = t.next;
+
+                    if (t.deadline <= tick) {
+                        t.next = null;
+                        batch[size++] = t;
+
+                        if (size == BATCH_SIZE) {
+                            dispatch(batch, size);
+                            batch = new Task[BATCH_SIZE];
+                            size = 0;
+                        }
+                    } else {
+                        t.next = remaining;
+                        remaining = t;
+                    }
+
+                    t = following;
+                }
+
+                buckets[bucket] = remaining;
+
+                if (size > 0) {
+                    dispatch(batch, size);
+                    batch = new Task[BATCH_SIZE];
+                }
+
+                currentTick = tick;
+                tick++;
+            }
+        }
+
+        private void dispatch(Task batch[], int size) {
+            workers.execute(() -> {
+                for (int i = 0; i < size; i++) {
+                    batch[i].fire(this);
+                }
+            });
+        }
+
+        // stops the timer, then waits for the steps already handed to the workers
+        public void shutdown() {
+            running = false;
+
+            try {
+                timer.join();
+
+                workers.shutdown();
+
+                if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // occupancy board split into CHUNK x CHUNK chunks, so that memory and startup time follow the populated area, not the map size
+    //  - a chunk is allocated by the first character that enters one of its squares, and published with a CAS
+    //  - every chunk counts its occupied squares. a character entering a square first reserves a count, which cannot be done
+    //    on a retired chunk, so a chunk is never retired under a character
+    //  - the sweeper retires chunks that stayed empty for RETIRE_NANOS: it swaps the count from 0 to RETIRED and unpublishes
+    //    the chunk. a character that finds a retired chunk unpublishes it too, and allocates a fresh one
+    public static class ChunkedBoard {
+        public static final int CHUNK_BITS = 6;
+        public static final int CHUNK = 1 << CHUNK_BITS;
+
+        private static final int CHUNK_MASK = CHUNK - 1;
+        private static final int RETIRED = -1;
+        private static final long RETIRE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private static final class Chunk {
+            private final AtomicReferenceArray<GameCharacter> squares;
+            private final AtomicInteger occupied;
+
+            // when the count last dropped to 0
+            private volatile long emptySince;
+
+            private Chunk() {
+                this.squares = new AtomicReferenceArray<>(CHUNK * CHUNK);
+                this.occupied = new AtomicInteger();
+                this.emptySince = System.nanoTime();
+            }
+
+            // adds a count unless the chunk is retired
+            private boolean reserve() {
+                int count;
+
+                do {
+                    count = occupied.get();
+
+                    if (count == RETIRED) {
+                        return false;
+                    }
+                } while (!occupied.compareAndSet(count, count + 1));
+
+                return true;
+            }
+
+            private void release() {
+                if (occupied.decrementAndGet() == 0) {
+                    emptySince = System.nanoTime();
+                }
+            }
+        }
+
+        private final int chunksY;
+        private final AtomicReferenceArray<Chunk> chunks;
+
+        public final AtomicInteger liveChunks;
+        public final LongAdder allocatedChunks;
+        public final LongAdder retiredChunks;
+
+        public ChunkedBoard(int width, int height) {
+            int chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+            this.chunksY = (height + CHUNK_MASK) >> CHUNK_BITS;
+            this.chunks = new AtomicReferenceArray<>(Math.toIntExact((long) chunksX * chunksY));
+
+            this.liveChunks = new AtomicInteger();
+            this.allocatedChunks = new LongAdder();
+            this.retiredChunks = new LongAdder();
+        }
+
+        private int chunkIndex(int x, int y) {
+            return (x >> CHUNK_BITS) * chunksY + (y >> CHUNK_BITS);
+        }
+
+        private static int squareIndex(int x, int y) {
+            return ((x & CHUNK_MASK) << CHUNK_BITS) | (y & CHUNK_MASK);
+        }
+
+        // returns the chunk holding x, y with a count reserved on it, allocating the chunk if needed
+        private Chunk reserve(int x, int y) {
+            int i = chunkIndex(x, y);
+
+            while (true) {
+                Chunk chunk = chunks.get(i);
+
+                if (chunk == null) {
+                    Chunk fresh = new Chunk();
+
+                    if (!chunks.compareAndSet(i, null, fresh)) {
+                        continue;
+                    }
+
+                    liveChunks.incrementAndGet();
+                    allocatedChunks.increment();
+                    chunk = fresh;
+                }
+
+                if (chunk.reserve()) {
+                    return chunk;
+                }
+
+                // retired under us: help unpublish it, then start over
+                chunks.compareAndSet(i, chunk, null);
+            }
+        }
+
+        // character on the square x, y, or null
+        public GameCharacter get(int x, int y) {
+            Chunk chunk = chunks.get(chunkIndex(x, y));
+            return chunk == null ? null : chunk.squares.get(squareIndex(x, y));
+        }
+
+        // puts g on the square x, y and returns the character that was there
+        public GameCharacter getAndSet(int x, int y, GameCharacter g) {
+            if (g == null) {
+                return clear(x, y);
+            }
+
+            Chunk chunk = reserve(x, y);
+            GameCharacter previous = chunk.squares.getAndSet(squareIndex(x, y), g);
+
+            // the square was already counted
+            if (previous != null) {
+                chunk.release();
+            }
+
+            return previous;
+        }
+
+        // empties the square x, y and returns the character that was there
+        public GameCharacter clear(int x, int y) {
+            // an occupied square keeps its chunk from being retired, so a missing or retired chunk has nothing to clear
+            Chunk chunk = chunks.get(chunkIndex(x, y));
+
+            if (chunk == null) {
+                return null;
+            }
+
+            GameCharacter previous = chunk.squares.getAndSet(squareIndex(x, y), null);
+
+            if (previous != null) {
+                chunk.release();
+            }
+
+            return previous;
+        }
+
+        // empties the square x, y only if g is on it, for a character leaving a square that another character may have taken
+        public boolean clear(int x, int y, GameCharacter g) {
+            Chunk chunk = chunks.get(chunkIndex(x, y));
+
+            if (chunk != null && chunk.squares.compareAndSet(squareIndex(x, y), g, null)) {
+                chunk.release();
+                return true;
+            }
+
+            return false;
+        }
+
+        // retires every chunk that has been empty for RETIRE_NANOS
+        public void sweep() {
+            long now = System.nanoTime();
+
+            for (int i = 0; i < chunks.length(); i++) {
+                Chunk chunk = chunks.get(i);
+
+                if (chunk == null || chunk.occupied.get() != 0 || now - chunk.emptySince < RETIRE_NANOS) {
+                    continue;
+                }
+
+                if (chunk.occupied.compareAndSet(0, RETIRED)) {
+                    chunks.compareAndSet(i, chunk, null);
+                    liveChunks.decrementAndGet();
+                    retiredChunks.increment();
+                }
+            }
+        }
+
+        // sweeps every period ms while the simulation runs
+        public Runnable sweeper(GameSimulation simulation, long period) {
+            return () -> {
+                while (simulation.running) {
+                    try {
+                        Thread.sleep(period);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    sweep();
+                }
+            };
+        }
+    }
+
+    // despawned characters waiting to be respawned by generate(), as a lock-free stack linked through the characters themselves
+    // any thread can push, but only the thread spawning characters pops. with a single popper a node cannot be popped and
+    // pushed back while a pop is in flight, so the stack is free of ABA even though its nodes are reused
+    public static class CharacterPool {
+        private final AtomicReference<GameCharacter> top;
+        private final AtomicInteger size;
+
+        public CharacterPool() {
+            this.top = new AtomicReference<>();
+            this.size = new AtomicInteger();
+        }
+
+        public void push(GameCharacter g) {
+            GameCharacter head;
+
+            do {
+                head = top.get();
+                g.pooledNext = head;
+            } while (!top.compareAndSet(head, g));
+
+            size.incrementAndGet();
+        }
+
+        // only called by the spawning thread
+        public GameCharacter pop() {
+            GameCharacter head;
+
+            do {
+                head = top.get();
+
+                if (head == null) {
+                    return null;
+                }
+            } while (!top.compareAndSet(head, head.pooledNext));
+
+            head.pooledNext = null;
+            size.decrementAndGet();
+
+            return head;
+        }
+
+        public int size() {
+            return size.get();
+        }
+    }
+
+    public class GameCharacter extends TimingWheel.Task implements Runnable {
         public int x;
         public int y;
 
         public int goalX;
         public int goalY;
 
-        public boolean collided;
+        // generation of the character, bumped every time it goes back to the pool, with COLLIDED in the lowest bit
+        // set by the character itself or by the character that walked into it, and only for the generation it saw, so a
+        // character that was despawned and respawned meanwhile is never marked for a collision of its previous life
+        private final AtomicInteger life;
+
+        // state of the bresenham walk from the current square to the goal. the walk is computed one square at a time,
+        // starting from x, y, so a character holds no list of points and a step never allocates
+        private int dx;
+        private int dy;
+        private int sx;
+        private int sy;
+        private int error;
 
-        // list of points to traverse
-        private LinkedList<Integer> xPoints;
-        private LinkedList<Integer> yPoints;
+        // square produced by the last call to nextSquare
+        private int nextX;
+        private int nextY;
 
-        public GameCharacter(int startX, int startY) {
+        // lockstep mode: claims of the chunk holding nextX, nextY, and the index of the square in them
+        private AtomicIntegerArray claimChunk;
+        private int claimSquare;
+
+        // source of the character's goals. split from the seeded generator of the game when it has one, so that goals are reproducible
+        private RandomGenerator random;
+
+        // next character in the pool while the character is despawned
+        private GameCharacter pooledNext;
+
+        public GameCharacter(int startX, int startY, RandomGenerator random) {
+            this.life = new AtomicInteger();
+
+            spawn(startX, startY, random);
+        }
+
+        // (re)starts the character on the given square with a new goal. used by the constructor and to respawn pooled characters
+        private void spawn(int startX, int startY, RandomGenerator random) {
             this.x = startX;
             this.y = startY;
-            
-            this.collided = false;
-
-            xPoints = new LinkedList<>();
-            yPoints = new LinkedList<>();
+            this.random = random;
 
             reset();
         }
 
         private void reset() {
-            int diffX = ThreadLocalRandom.current().nextInt(-10, 11);
-            int diffY = ThreadLocalRandom.current().nextInt(-10, 11);
-
-            int savedX = x;
-            int savedY = y;
+            int diffX = random.nextInt(-10, 11);
+            int diffY = random.nextInt(-10, 11);
 
             // check if out of bounds
             if (x + diffX < 0) {
@@ -57,9 +569,8 @@ public class GameSimulation implements Runnable {
                 this.goalY = y + diffY;
             }
 
-            // generate points to traverse, using bresenham's line algorithm. Implementation of pseudocode found online
-            int dx = Math.abs(goalX - x);
-            int sx;
+            // start a walk to the goal, using bresenham's line algorithm. Implementation of pseudocode found online
+            dx = Math.abs(goalX - x);
 
             if (x < goalX) {
                 sx = 1;
@@ -67,8 +578,7 @@ public class GameSimulation implements Runnable {
                 sx = -1;
             }
 
-            int dy = -Math.abs(goalY - y);
-            int sy;
+            dy = -Math.abs(goalY - y);
 
             if (y < goalY) {
                 sy = 1;
@@ -76,125 +586,426 @@ public class GameSimulation implements Runnable {
                 sy = -1;
             }
 
-            int e = dx + dy;
+            error = dx + dy;
+        }
 
-            while (true) {
-                xPoints.add(x);
-                yPoints.add(y);
+        public int generation() {
+            return life.get() >>> 1;
+        }
 
-                if (x == goalX && y == goalY) {
-                    break;
+        public boolean collided() {
+            return (life.get() & COLLIDED) != 0;
+        }
+
+        // marks the character collided if it is still in the given generation
+        void collide(int generation) {
+            life.compareAndSet(generation << 1, (generation << 1) | COLLIDED);
+        }
+
+        // moves the character to its next generation, not collided. only called once it has left the board for the pool
+        void retire() {
+            life.set((generation() + 1) << 1);
+        }
+
+        // computes the square after x, y on the walk into nextX, nextY. returns false when the walk is over
+        private boolean nextSquare() {
+            if (x == goalX && y == goalY) {
+                return false;
+            }
+
+            int e2 = 2 * error;
+            int e = error;
+            int px = x;
+            int py = y;
+
+            if (e2 >= dy) {
+                if (px == goalX) {
+                    return false;
                 }
 
-                int e2 = 2 * e;
+                e = e + dy;
+                px = px + sx;
+            }
 
-                if (e2 >= dy) {
-                    if (x == goalX) {
-                        break;
-                    }
+            if (e2 <= dx) {
+                if (py == goalY) {
+                    return false;
+                }
 
-                    e = e + dy;
-                    x = x + sx;
+                e = e + dx;
+                py = py + sy;
+            }
+
+            error = e;
+            nextX = px;
+            nextY = py;
+
+            return true;
+        }
+
+        // lockstep mode, intent phase: choose the square to occupy at the end of the tick into nextX, nextY
+        void intend() {
+            if (!nextSquare()) {
+                reset();
+
+                // the new goal can be the current square, in which case the character stays where it is
+                if (!nextSquare()) {
+                    nextX = x;
+                    nextY = y;
                 }
+            }
+        }
 
-                if (e2 <= dx) {
-                    if (y == goalY) {
-                        break;
-                    }
+        // lockstep mode, commit phase: move to the chosen square
+        void commit() {
+            x = nextX;
+            y = nextY;
+        }
+
+        // performs a single step: pick a new goal if needed, then move one square along the path
+        // returns false once the character has collided or the game has stopped
+        public boolean step() {
+            if (collided() || !running) {
+                return false;
+            }
+
+            // if the character has reached the goal - generate new goal
+            if (!nextSquare()) {
+                reset();
 
-                    e = e + dx;
-                    y = y + sy;
+                // the new goal can be the current square, in which case the character waits a step
+                if (!nextSquare()) {
+                    return true;
                 }
             }
 
-            // restore original points
-            x = savedX;
-            y = savedY;
+            int newX = nextX;
+            int newY = nextY;
 
-            // remove starting point from move queue
-            xPoints.remove();
-            yPoints.remove();
+            // write reference into the board
+            GameCharacter reference = board.getAndSet(newX, newY, this);
+
+            // if the square is not null, we have collided
+            if (reference != null) {
+                // the generation of the occupant is read as soon as the square is taken. an occupant that went back to the
+                // pool since then is in a later generation, and is left alone
+                int occupantGeneration = reference.generation();
+                int generation = generation();
+
+                reference.collide(occupantGeneration);
+                collide(generation);
+
+                board.clear(newX, newY);
+                collisions.offer(new Collision(this, generation, reference, occupantGeneration, newX, newY));
+            } else {
+                metrics.moves.increment();
+            }
+
+            board.clear(x, y);
+
+            // update x, y
+            x = newX;
+            y = newY;
+
+            return !collided();
         }
 
+        // thread per character: step, then pause for 20 ms
         @Override
         public void run() {
-            while(!collided && running) {
-                // if the character has reached the goal - generate new goal
-                if (x == goalX && y == goalY) {
-                    reset();
+            while (step()) {
+                try {
+                    Thread.sleep(STEP_MILLIS);
+                } catch (InterruptedException e) {
+
+                    e.printStackTrace();
                 }
+            }
+
+            despawn();
+        }
+
+        // pooled mode: the character is a task of the timing wheel. it runs one step when due, then schedules its next step
+        // 20 ms after the deadline it was due at (not after now), so the cadence does not drift when steps fire late
+        @Override
+        protected void fire(TimingWheel wheel) {
+            metrics.stepLatenessNanos.add(System.nanoTime() - wheel.nanoTimeOf(deadline));
+            metrics.scheduledSteps.increment();
+
+            if (step()) {
+                wheel.schedule(this, deadline + STEP_MILLIS);
+            } else {
+                despawn();
+            }
+        }
+
+        // leaves the board and goes back to the pool. only called by the character itself once it has stopped stepping
+        private void despawn() {
+            // the square is normally cleared by whoever collided with us, unless we had already moved on
+            board.clear(x, y, this);
+
+            if (collided()) {
+                metrics.despawns.increment();
+            }
 
-                while (!xPoints.isEmpty() && running) {
-                    int newX = xPoints.remove();
-                    int newY = yPoints.remove();
+            recycle(this);
+        }
+    }
+
+    // deterministic lockstep engine: every character advances one square per tick, all at once
+    //  - intent phase: in parallel, every character picks the square it will occupy and claims it, in claim chunks laid out
+    //    like the chunks of the board
+    //  - commit phase: in parallel, a character whose square was claimed more than once has collided, the others move
+    //  - between ticks, on one thread: collided characters are removed in order, and new characters are spawned
+    // collisions only depend on the claim counts, never on the order in which threads ran, so with a seed a run is reproducible.
+    // characters that swap squares pass through each other, only characters ending a tick on the same square collide
+    public class LockstepEngine {
+        // characters per fork/join leaf task
+        private static final int LEAF_SIZE = 2048;
+
+        // ticks without a claim after which a claim chunk is dropped, a second of game time as for the chunks of the board
+        private static final long RETIRE_TICKS = 1000 / STEP_MILLIS;
+
+        private final ForkJoinPool pool;
+
+        // claim counts of the squares for chunk i of the board at i, allocated as characters walk in, so that a large board
+        // only pays for the claims of the chunks in use. every count is back to 0 between ticks
+        private final AtomicReferenceArray<AtomicIntegerArray> claims;
 
-                    // write reference into the board
-                    GameCharacter reference = board[newX][newY].getAndSet(this);
+        // tick at which each claim chunk was last claimed, only used between ticks
+        private final long claimedTicks[];
 
-                    // if the square is not null, we have collided
-                    if (reference != null) {
-                        // System.out.println(this + " has collided at (" + x + ", " + y + ")");
+        private GameCharacter characters[];
+        private int count;
 
-                        reference.collided = true;
-                        this.collided = true;
+        // game time of a tick, used to convert the spawn delay into spawns per tick
+        private long spawnBudgetMillis;
+
+        public long ticks;
+        public long characterSteps;
+
+        public LockstepEngine(ForkJoinPool pool) {
+            this.pool = pool;
+            this.claims = new AtomicReferenceArray<>(board.chunks.length());
+            this.claimedTicks = new long[board.chunks.length()];
+            this.characters = new GameCharacter[Math.max(16, startingCharacters)];
+            this.count = 0;
+            this.spawnBudgetMillis = 0;
+            this.ticks = 0;
+            this.characterSteps = 0;
+
+            for (int i = 0; i < startingCharacters; i++) {
+                spawn();
+            }
+        }
 
-                        board[newX][newY].set(null); 
+        private void spawn() {
+            GameCharacter g = generate();
+
+            if (g != null) {
+                add(g);
+            }
+        }
+
+        private void add(GameCharacter g) {
+            if (count == characters.length) {
+                characters = Arrays.copyOf(characters, count * 2);
+            }
+
+            characters[count++] = g;
+        }
+
+        // claims of the chunk holding x, y, allocated by the first character to claim a square in it
+        private AtomicIntegerArray claimChunk(int x, int y) {
+            int i = board.chunkIndex(x, y);
+            AtomicIntegerArray chunk = claims.get(i);
+
+            if (chunk == null) {
+                AtomicIntegerArray fresh = new AtomicIntegerArray(ChunkedBoard.CHUNK * ChunkedBoard.CHUNK);
+                chunk = claims.compareAndSet(i, null, fresh) ? fresh : claims.get(i);
+            }
+
+            return chunk;
+        }
+
+        // splits the characters into ranges of at most LEAF_SIZE, running the phase on every range in parallel
+        private class Phase extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final boolean intent;
+            private final int from;
+            private final int to;
+
+            Phase(boolean intent, int from, int to) {
+                this.intent = intent;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > LEAF_SIZE) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Phase(intent, from, middle), new Phase(intent, middle, to));
+                    return;
+                }
+
+                for (int i = from; i < to; i++) {
+                    GameCharacter g = characters[i];
+
+                    if (intent) {
+                        g.intend();
+                        g.claimChunk = claimChunk(g.nextX, g.nextY);
+                        g.claimSquare = ChunkedBoard.squareIndex(g.nextX, g.nextY);
+
+                        // the second claim of a square is the collision
+                        if (g.claimChunk.incrementAndGet(g.claimSquare) == 2) {
+                            metrics.collisions.increment();
+                        }
+                    } else if (g.claimChunk.get(g.claimSquare) > 1) {
+                        g.collide(g.generation());
                     } else {
-                        incrementSuccessfulMoves();
+                        g.commit();
+                        metrics.moves.increment();
                     }
+                }
+            }
+        }
 
-                    board[x][y].set(null); 
+        // advances the game by one tick
+        public void tick() {
+            pool.invoke(new Phase(true, 0, count));
+            pool.invoke(new Phase(false, 0, count));
 
-                    // update x, y
-                    x = newX;
-                    y = newY;
+            // clear the claims and drop the collided characters, keeping the survivors in order
+            int kept = 0;
 
-                    // pause for 20 ms
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException e) {
+            for (int i = 0; i < count; i++) {
+                GameCharacter g = characters[i];
+
+                // the character lets go of the chunk, which may be retired while it is pooled
+                g.claimChunk.set(g.claimSquare, 0);
+                g.claimChunk = null;
+                claimedTicks[board.chunkIndex(g.nextX, g.nextY)] = ticks;
+
+                if (g.collided()) {
+                    metrics.despawns.increment();
+                    recycle(g);
+                } else {
+                    characters[kept++] = g;
+                }
+            }
 
-                        e.printStackTrace();
+            Arrays.fill(characters, kept, count, null);
+            characterSteps += count;
+            count = kept;
+
+            // one character every characterCreationDelay ms of game time
+            if (characterCreationDelay > 0) {
+                spawnBudgetMillis += STEP_MILLIS;
+
+                while (spawnBudgetMillis >= characterCreationDelay) {
+                    spawn();
+                    spawnBudgetMillis -= characterCreationDelay;
+                }
+            }
+
+            // drop the claim chunks nobody walked into for a while, once a second of game time
+            if (ticks % RETIRE_TICKS == 0) {
+                for (int i = 0; i < claimedTicks.length; i++) {
+                    if (ticks - claimedTicks[i] >= RETIRE_TICKS) {
+                        claims.set(i, null);
                     }
                 }
             }
+
+            ticks++;
+        }
+
+        // hash of the position of every character, equal between two runs with the same seed
+        public long checksum() {
+            long hash = count;
+
+            for (int i = 0; i < count; i++) {
+                hash = hash * 31 + index(characters[i].x, characters[i].y);
+            }
+
+            return hash;
         }
     }
 
     public final int width;
     public final int height;
-    public final AtomicReference<GameCharacter> board[][];
+
+    // occupancy board, allocated chunk by chunk as characters walk in
+    public final ChunkedBoard board;
+
+    // collisions waiting to be consumed by the simulation
+    public final ConcurrentLinkedQueue<Collision> collisions;
+
     public final int characterCreationDelay;
     public final int startingCharacters;
 
-    public boolean running;
+    // cleared by stop(), read by every character
+    public volatile boolean running;
     public boolean useThreadPool;
 
-    public int successfulMoves;
-    public Object countLock;
+    public final GameMetrics metrics;
+
+    // period of the rate report in ms, 0 disables it
+    public long reportPeriod;
+
+    // when above 0, the game runs this many ticks on the lockstep engine instead of in real time
+    public long lockstepTicks;
+
+    // generator for spawns, set by seed(). null means ThreadLocalRandom is used and runs are not reproducible
+    private SplittableRandom spawnRandom;
 
     public int maxThreads;
+
+    // live characters, and the most there may be at once (0 for no cap). spawns are skipped while the cap is reached
+    public final AtomicInteger population;
+    public int maxPopulation;
+
+    public final CharacterPool pool;
+
+    // counted down once run() has stopped every character, or by stop() when run() was never entered
+    private final CountDownLatch stopped;
+
+    // set by the first of run() and stop(), so a game stopped before it started neither starts nor waits for a run
+    private final AtomicBoolean entered;
+
+    // pooled mode: the timing wheel holding the next step of every character
+    private TimingWheel wheel;
+
+    public static final long STEP_MILLIS = 20;
+
+    // lowest bit of the life of a character, set once it has collided
+    private static final int COLLIDED = 1;
     
 
-    @SuppressWarnings("unchecked")
     public GameSimulation(int maxX, int maxY, int s, int n) {
         this.width = maxX;
         this.height = maxY;
 
-        board = new AtomicReference[width][height];
+        // only the chunk table is allocated up front, one reference per 64 x 64 squares
+        board = new ChunkedBoard(width, height);
 
-        this.startingCharacters = n;
+        collisions = new ConcurrentLinkedQueue<>();
 
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                board[i][j] = new AtomicReference<GameCharacter>();
-            }
-        }
+        this.startingCharacters = n;
 
         this.running = true;
         this.useThreadPool = false;
-        this.successfulMoves = 0;
-        this.countLock = new Object();
+        this.metrics = new GameMetrics();
+        this.reportPeriod = 0;
+        this.lockstepTicks = 0;
+        this.spawnRandom = null;
+        this.population = new AtomicInteger();
+        this.maxPopulation = 0;
+        this.pool = new CharacterPool();
+        this.stopped = new CountDownLatch(1);
+        this.entered = new AtomicBoolean();
         this.characterCreationDelay = s;
     }
 
@@ -205,64 +1016,178 @@ public class GameSimulation implements Runnable {
         this.useThreadPool = true;
     }
 
-    public void incrementSuccessfulMoves() {
-        synchronized (countLock) {
-            successfulMoves += 1;
+    // pooled mode: starts the character's 20 ms steps, with a random first delay so that the characters do not all step at once
+    private void schedule(GameCharacter g) {
+        long firstStep = ThreadLocalRandom.current().nextLong(STEP_MILLIS);
+        wheel.schedule(g, wheel.now() + firstStep);
+    }
+
+    // number of the square x, y, as hashed into the lockstep checksum
+    public int index(int x, int y) {
+        return x * height + y;
+    }
+
+    // consumes the collisions published by the characters since the last call
+    public void drainCollisions() {
+        Collision c;
+
+        while ((c = collisions.poll()) != null) {
+            // System.out.println(c.mover() + " has collided at (" + c.x() + ", " + c.y() + ")");
+
+            metrics.collisions.increment();
         }
     }
 
-    // returns a game character with a random destination starting on the edge of the map
+    // makes every spawn and every goal of the game derive from the seed
+    public void seed(long seed) {
+        this.spawnRandom = new SplittableRandom(seed);
+    }
+
+    // hands a despawned character back to generate(), in a new generation so that collisions of its last life no longer reach it
+    private void recycle(GameCharacter g) {
+        g.retire();
+        population.decrementAndGet();
+        pool.push(g);
+    }
+
+    // returns a game character with a random destination starting on the edge of the map, or null when the population is at
+    // its cap. a pooled character is respawned when there is one, so that spawning does not allocate once the pool is warm
     private GameCharacter generate() {
+        if (maxPopulation > 0 && population.get() >= maxPopulation) {
+            metrics.throttled.increment();
+            return null;
+        }
+
+        population.incrementAndGet();
+        metrics.spawns.increment();
+
+        GameCharacter g = pool.pop();
+
+        RandomGenerator random;
+        RandomGenerator characterRandom;
+
+        if (spawnRandom != null) {
+            random = spawnRandom;
+
+            // a pooled character keeps its own split generator
+            characterRandom = g == null ? spawnRandom.split() : g.random;
+        } else {
+            random = ThreadLocalRandom.current();
+            characterRandom = random;
+        }
+
+        int startX;
+        int startY;
+
         // generate point on top or bottom
-        if (ThreadLocalRandom.current().nextBoolean()) {
-            int startX;
-            int startY = ThreadLocalRandom.current().nextInt(height);
+        if (random.nextBoolean()) {
+            startY = random.nextInt(height);
 
-            if (ThreadLocalRandom.current().nextBoolean()) {
+            if (random.nextBoolean()) {
                 startX = 0;
             } else {
                 startX = width - 1;
             }
 
-            return new GameCharacter(startX, startY);
-
         // generate point on left or right
         } else {
-            int startX = ThreadLocalRandom.current().nextInt(width);
-            int startY;
+            startX = random.nextInt(width);
 
-            if (ThreadLocalRandom.current().nextBoolean()) {
+            if (random.nextBoolean()) {
                 startY = 0;
             } else {
                 startY = height - 1;
             }
+        }
+
+        if (g == null) {
+            return new GameCharacter(startX, startY, characterRandom);
+        }
+
+        metrics.recycled.increment();
+        g.spawn(startX, startY, characterRandom);
+
+        return g;
+    }
 
-            return new GameCharacter(startX, startY);
+    // pooled mode: spawns a character onto the timing wheel, unless the population is at its cap
+    private void spawnScheduled() {
+        GameCharacter g = generate();
+
+        if (g != null) {
+            schedule(g);
+        }
+    }
+
+    // non-pooled mode: spawns a character on its own thread, unless the population is at its cap
+    private void spawnThread() {
+        GameCharacter g = generate();
+
+        if (g != null) {
+            new Thread(g).start();
+        }
+    }
+
+    // waits for the last characters to notice that the game has stopped and despawn
+    private void awaitDespawns() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (population.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(STEP_MILLIS));
+        }
+    }
+
+    // stops the game and waits until every character has despawned and the workers are drained
+    public void stop() {
+        running = false;
+
+        // run() was never entered and never will be, so there is nothing to wait for
+        if (entered.compareAndSet(false, true)) {
+            stopped.countDown();
+        }
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
     }
 
     @Override
     public void run() {
-        if (useThreadPool) {
+        // already stopped, or already running on another thread
+        if (!entered.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (reportPeriod > 0) {
+            Thread reporter = new Thread(metrics.reporter(this, reportPeriod), "metrics-reporter");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+
+        Thread sweeper = new Thread(board.sweeper(this, 1000), "board-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+
+        if (lockstepTicks > 0) {
+            runLockstep();
+        } else if (useThreadPool) {
             System.out.println("Starting pooled simulation");
 
-            // instantiate thread pool
-            ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(maxThreads);
-            List<GameCharacter> characters = new ArrayList<>();
+            // characters are tasks of a timing wheel rather than threads, so maxThreads threads can drive any number of characters
+            wheel = new TimingWheel(maxThreads, TimeUnit.MILLISECONDS.toNanos(1));
 
             // instantiate n characters
             for (int i = 0; i < startingCharacters; i++) {
-                characters.add(generate());
-            }
-
-            // add all characters to the board
-            for (GameCharacter g : characters) {
-                executor.execute(g);
+                spawnScheduled();
             }
             
             while (running) {
+                drainCollisions();
+
                 // generate character
-                executor.execute(generate());
+                spawnScheduled();
 
                 // sleep for s ms
                 try {
@@ -272,19 +1197,20 @@ public class GameSimulation implements Runnable {
                 }
             }
 
-            executor.shutdown();
+            // the wheel keeps firing until every character has seen running cleared, then it is drained
+            awaitDespawns();
+            wheel.shutdown();
         } else {
             System.out.println("Starting non-pooled simulation");
 
-            Thread threads[] = new Thread[startingCharacters];
-
             for (int i = 0; i < startingCharacters; i++) {
-                threads[i] = new Thread(generate());
-                threads[i].start();
+                spawnThread();
             }
 
             while (running) {
-                (new Thread(generate())).start();
+                drainCollisions();
+
+                spawnThread();
 
                 // sleep for s ms
                 try {
@@ -293,6 +1219,106 @@ public class GameSimulation implements Runnable {
                     e.printStackTrace();
                 }
             }
+
+            awaitDespawns();
+        }
+
+        drainCollisions();
+
+        // also ends the reporter and the sweeper once the lockstep engine is done
+        running = false;
+        stopped.countDown();
+    }
+
+    // runs lockstepTicks ticks as fast as possible, using maxThreads threads in pooled mode and every core otherwise
+    private void runLockstep() {
+        System.out.println("Starting lockstep simulation");
+
+        ForkJoinPool pool = useThreadPool ? new ForkJoinPool(maxThreads) : ForkJoinPool.commonPool();
+        LockstepEngine engine = new LockstepEngine(pool);
+        long start = System.nanoTime();
+
+        while (running && engine.ticks < lockstepTicks) {
+            engine.tick();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d ticks, %d character steps in %.2f s (%.0f steps/s), %d collisions, checksum %x%n",
+            engine.ticks, engine.characterSteps, seconds, engine.characterSteps / seconds, metrics.collisions.sum(), engine.checksum());
+
+        if (useThreadPool) {
+            pool.shutdown();
+        }
+    }
+
+    // entry point: java GameSimulation.java width height s n [maxThreads] [lockstep=<ticks>] [seed=<seed>] [cap=<n>] [duration=<s>]
+    // s is the delay between new characters in ms, n the number of starting characters, and maxThreads enables the thread pool
+    // lockstep runs the given number of ticks on the deterministic lockstep engine, and seed makes the run reproducible
+    // cap limits the number of live characters, and duration stops the game after that many seconds
+    public static void main(String args[]) {
+        GameSimulation simulation = null;
+        long ticks = 0;
+        Long seed = null;
+        int cap = 0;
+        long duration = 0;
+
+        try {
+            int width = Integer.parseInt(args[0]);
+            int height = Integer.parseInt(args[1]);
+            int s = Integer.parseInt(args[2]);
+            int n = Integer.parseInt(args[3]);
+            int maxThreads = 0;
+
+            for (int i = 4; i < args.length; i++) {
+                if (args[i].startsWith("lockstep=")) {
+                    ticks = Long.parseLong(args[i].substring(9));
+                } else if (args[i].startsWith("seed=")) {
+                    seed = Long.parseLong(args[i].substring(5));
+                } else if (args[i].startsWith("cap=")) {
+                    cap = Integer.parseInt(args[i].substring(4));
+                } else if (args[i].startsWith("duration=")) {
+                    duration = Long.parseLong(args[i].substring(9));
+                } else {
+                    maxThreads = Integer.parseInt(args[i]);
+                }
+            }
+
+            if (maxThreads > 0) {
+                simulation = new GameSimulation(width, height, s, n, maxThreads);
+            } else {
+                simulation = new GameSimulation(width, height, s, n);
+            }
+        } catch (Exception e) {
+            System.out.println("Expected integer inputs width height s n, optionally followed by maxThreads, lockstep=<ticks>, seed=<seed>, cap=<n> and duration=<s>");
+            System.exit(-1);
+        }
+
+        if (seed != null) {
+            simulation.seed(seed);
+        }
+
+        simulation.lockstepTicks = ticks;
+        simulation.maxPopulation = cap;
+
+        if (ticks == 0) {
+            simulation.reportPeriod = 1000;
+        }
+
+        Thread t = new Thread(simulation);
+        t.start();
+
+        if (duration > 0 && ticks == 0) {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            simulation.stop();
+
+            System.out.printf("stopped: %d spawns (%d recycled), %d pooled characters, %d live characters%n", simulation.metrics.spawns.sum(),
+                simulation.metrics.recycled.sum(), simulation.pool.size(), simulation.population.get());
         }
     }
 }
@@ -1,77 +1,436 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /*
  *  Given the requirement to allow stations to function independently, a global lock does not work as stations would have to wait for others to allow passengers 
- *  So given this scenario, 4 locks were used, one for each station
- *  The overseer acquires all four locks, freezing the different stations to acquire an accurate count and release the locks when done.
+ *  So each station keeps its own count, and nobody ever locks a station:
+ *      - the state of a station is a single word packing a write in progress bit, the epoch of its last write and the
+ *        passenger count (low 32 bits)
+ *      - only the station's thread writes its word, so a write is a few plain volatile stores and never waits
+ *      - the words live in one AtomicLongArray, STRIDE longs apart, so two stations never share a cache line
+ *      - allowEntry is a volatile flag written by the overseer and read by the station
+ *  The overseer takes a consistent total with an epoch snapshot, without stopping or retrying against the stations:
+ *      - it starts a snapshot by bumping the global epoch
+ *      - the first write of a station in a new epoch first saves the count it had, next to its word
+ *      - a station marks its word before reading the epoch, and the overseer reads the word after bumping it, so either the
+ *        overseer waits for the write in progress or the write sees the new epoch
+ *      - the overseer takes the saved count of a station that wrote in the new epoch, and the count of any other station,
+ *        so every count is the one the station held when the epoch was bumped
+ *
+ *  The number of stations is chosen at startup, so there can be thousands of them:
+ *      - a station is one passenger step every 10 ms, run by a scheduled pool rather than by a thread of its own
+ *      - each collect is a tree reduction on a fork/join pool: the stations are split in halves down to groups of GROUP_SIZE,
+ *        the groups are summed in parallel and the sums combined up the tree, so a collect takes time logarithmic in the
+ *        number of groups given enough cores
+ *      - a snapshot is a single collect however fast the stations move, so it stays exact with thousands of stations on
+ *        many cores
+ *
+ *  Capacity is enforced with admission tokens rather than by the overseer's polling alone:
+ *      - the capacity is split into tokens held by the stations, a passenger needs a token to enter and hands it back on leaving
+ *      - a station with no token left steals half of the tokens of another station, trying a few stations at random and then
+ *        every station, so a passenger is only turned away when no station has a token left
+ *      - an entry takes a token and a leave hands one back, also when the station was empty (passengers may always leave), so
+ *        tokens + total == maxCapacity at all times. tokens never go below 0, so the passengers inside can never exceed the
+ *        capacity, however long the overseer takes to notice, and an entry never waits for the overseer or takes a lock
+ *  The total can therefore never go past maxCapacity for the overseer to see it there. Instead, the station whose sweep finds
+ *  no token at all reports the system full, and the overseer stops entries from then down to 0.75 maxCapacity, so the system
+ *  keeps its hysteresis. The failed sweep also sets tokensExhausted, so until a passenger leaves and hands a token back, the
+ *  next entries are turned away at once instead of sweeping every station again.
+ *
+ *  By default the overseer is driven by events instead of polling every q ms, and sleeps until a station reports a crossing:
+ *      - the system reaching maxCapacity is the failed sweep above, so entries cost nothing shared beyond the tokens
+ *      - falling back below 0.75 maxCapacity is detected in drain rounds, only while entries are stopped. after stopping
+ *        them, the overseer takes a snapshot, works out how many more passengers must leave, and arms a round with a shared
+ *        progress counter and a batch size
+ *      - each station counts its own progress since it first saw the round, and only adds it to the shared counter a whole
+ *        batch at a time, so a station can hold back less than a batch. the counter reports the round done once the
+ *        passengers still needed, less what every station could be holding back, have left
+ *      - the overseer then checks with a snapshot, and either resumes entries or arms a new round for what is left, with a
+ *        batch sized from it. the batches shrink with the distance to the bound, down to single passengers
+ *      - while entries are allowed no station writes anything shared but tokens, and while they are stopped a station
+ *        writes the shared counter once every batch of passengers, rather than on every passenger
+ *  The time from a crossing to the flags of every station being changed is measured in both designs, and
+ *  java MetroSystem.java n q stations compare=<seconds> runs them one after the other to compare it.
  */
 
 public class MetroSystem implements Runnable {
     public class Station implements Runnable {
-        private int localCount;
-        private Object lock;
-        private boolean allowEntry;
+        // slot of the station's state word in states
+        private final int slot;
+        private volatile boolean allowEntry;
 
-        public Station(Object lock) {
-            this.localCount = 0;
-            this.lock = lock;
+        public Station(int index) {
+            this.slot = index * STRIDE;
             this.allowEntry = true;
         }
 
-        public void run() {
-            while(true) {
-                // generates an integer uniformly at random in the range 0 to 99 inclusive
-                // use ThreadLocalRandom to avoid contention in the case of Random
-                int randomNum = ThreadLocalRandom.current().nextInt(0, 100);  
-
-                // take advantage of the uniform distribution
-                // since each number between 0 - 99 has an equal chance of being generated
-                // then there are 49 numbers in the range 0 <= x <= 48 
-                // and there are 51 numbers in the range 49 <= x <= 99
-
-                // so 49% chance and 51% chance respectively
-
-                // then we only add allow entry if two conditions are true:
-                // - it is the case in the 51% that a passenger chooses to leave
-                // - it is the case that the overseer allows passengers to enter : not above maximum capacity
-
-                // however, there are no restrictions on leaving the station as long as we are in the 49% case
-                synchronized (this.lock) {
-                    if (randomNum < 49) {
-                        this.localCount -= 1;
-                    } else if (allowEntry) {
-                        this.localCount += 1;
+        // drain round the station last saw, its count when it saw it, and the progress it added to the round
+        private Drain drainSeen;
+        private int drainBase;
+        private long drainAdded;
+
+        // only called by the station's thread, the single writer of its word. returns the new count
+        private int add(int delta) {
+            long state = states.get(slot);
+
+            // the mark is written before the epoch is read, so a snapshot that bumped the epoch before reading this word
+            // either waits for this write or has this write tag itself with the new epoch
+            states.set(slot, state | WRITING);
+            int current = epoch;
+
+            // first write since a snapshot started: keep the count the snapshot needs, before the word says it is kept
+            if (epoch(state) != current) {
+                states.set(slot + 2, count(state));
+            }
+
+            states.set(slot, pack(current, count(state) + delta));
+            return count(state) + delta;
+        }
+
+        // adds the passengers that left this station since it first saw the round to its progress, a whole batch at a time
+        private void drain(int count, int delta) {
+            Drain round = drain;
+
+            if (round == null) {
+                return;
+            }
+
+            // the changes before the station saw the round may have been in the overseer's snapshot, so they are left out
+            if (round != drainSeen) {
+                drainSeen = round;
+                drainBase = count - delta;
+                drainAdded = 0;
+            }
+
+            long progress = Math.floorDiv(drainBase - count, round.batch) * round.batch;
+
+            if (progress != drainAdded) {
+                long done = round.progress.addAndGet(progress - drainAdded);
+                drainAdded = progress;
+                sharedUpdates.increment();
+
+                // reported once a round, the overseer arms a new round if it was not enough
+                if (done >= round.threshold && !round.reported) {
+                    round.reported = true;
+                    signal(DRAINED);
+                }
+            }
+        }
+
+        // takes a token for a passenger to enter, from this station or from another one. false if none could be found
+        private boolean acquireToken() {
+            long available;
+
+            while ((available = states.get(slot + 1)) > 0) {
+                if (states.compareAndSet(slot + 1, available, available - 1)) {
+                    return true;
+                }
+            }
+
+            // nobody has handed a token back since the last sweep found none
+            if (tokensExhausted) {
+                deniedEntries.increment();
+                return false;
+            }
+
+            return stealToken();
+        }
+
+        // takes half of the tokens of the first station found with any, keeps one and adds the rest to this station's tokens
+        // a few stations are tried at random, then every station in turn: the sweep only happens when tokens have become
+        // scarce, i.e. close to the capacity, where the overseer is about to stop entries anyway
+        private boolean stealToken() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int index = slot / STRIDE;
+
+            for (int probe = 0; probe < Math.min(STEAL_PROBES, numStations - 1); probe++) {
+                if (stealFrom((index + 1 + random.nextInt(numStations - 1)) % numStations)) {
+                    return true;
+                }
+            }
+
+            for (int i = 1; i < numStations; i++) {
+                if (stealFrom((index + i) % numStations)) {
+                    return true;
+                }
+            }
+
+            // every token is taken: the total is at the capacity
+            tokensExhausted = true;
+            deniedEntries.increment();
+            signal(FULL);
+
+            return false;
+        }
+
+        private boolean stealFrom(int victim) {
+            int tokens = victim * STRIDE + 1;
+            long available = states.get(tokens);
+
+            while (available > 0) {
+                long taken = (available + 1) / 2;
+
+                if (states.compareAndSet(tokens, available, available - taken)) {
+                    stolenTokens.increment();
+
+                    if (taken > 1) {
+                        states.addAndGet(slot + 1, taken - 1);
                     }
+
+                    return true;
+                }
+
+                available = states.get(tokens);
+            }
+
+            return false;
+        }
+
+        // one passenger step, run by the station pool every 10 ms. the pool never runs two steps of a station at once
+        public void run() {
+            // generates an integer uniformly at random in the range 0 to 99 inclusive
+            // use ThreadLocalRandom to avoid contention in the case of Random
+            int randomNum = ThreadLocalRandom.current().nextInt(0, 100);  
+
+            // take advantage of the uniform distribution
+            // since each number between 0 - 99 has an equal chance of being generated
+            // then there are 49 numbers in the range 0 <= x <= 48 
+            // and there are 51 numbers in the range 49 <= x <= 99
+
+            // so 49% chance and 51% chance respectively
+
+            // then we only add allow entry if three conditions are true:
+            // - it is the case in the 51% that a passenger chooses to leave
+            // - it is the case that the overseer allows passengers to enter : not above maximum capacity
+            // - a token is available for the passenger, which bounds the total even between two checks of the overseer
+
+            // however, there are no restrictions on leaving the station as long as we are in the 49% case, and the token of the
+            // passenger is returned to this station
+            if (randomNum < 49) {
+                int count = add(-1);
+                states.incrementAndGet(slot + 1);
+
+                // only written when set, so the leaves of every station share the line of the hint for reading
+                if (tokensExhausted) {
+                    tokensExhausted = false;
+                }
+
+                drain(count, -1);
+            } else if (allowEntry && acquireToken()) {
+                drain(add(1), 1);
+            }
+        }
+    }
+
+    // one drain round, armed by the overseer while entries are stopped
+    private static class Drain {
+        // passengers moved by a station between two updates of progress
+        private final int batch;
+
+        // progress from which the passengers still needed may have left, whatever the stations are holding back
+        private final long threshold;
+
+        // passengers that left since the stations saw the round, less those that entered, in whole batches
+        private final AtomicLong progress;
+
+        // set by the station that reports the round
+        private volatile boolean reported;
+
+        private Drain(int batch, long threshold) {
+            this.batch = batch;
+            this.threshold = threshold;
+            this.progress = new AtomicLong();
+            this.reported = false;
+        }
+    }
+
+    // sums the counts the stations lo <= i < hi held when the epoch of the snapshot started, splitting the range in halves
+    // down to groups of GROUP_SIZE
+    private class Tally extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int snapshotEpoch;
+
+        private long count;
+
+        // writes in progress the snapshot had to wait for
+        private long waits;
+
+        private Tally(int lo, int hi, int snapshotEpoch) {
+            this.lo = lo;
+            this.hi = hi;
+            this.snapshotEpoch = snapshotEpoch;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= GROUP_SIZE) {
+                for (int i = lo; i < hi; i++) {
+                    count += countAt(i * STRIDE);
+                }
+
+                return;
+            }
+
+            int middle = (lo + hi) >>> 1;
+            Tally left = new Tally(lo, middle, snapshotEpoch);
+            Tally right = new Tally(middle, hi, snapshotEpoch);
+
+            invokeAll(left, right);
+
+            count = left.count + right.count;
+            waits = left.waits + right.waits;
+        }
+
+        // count the station whose word is at slot held when the snapshot started
+        private long countAt(int slot) {
+            long state;
+
+            for (int spins = 0; ((state = states.get(slot)) & WRITING) != 0; spins++) {
+                if (spins == 0) {
+                    waits++;
                 }
 
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                if (spins < MAX_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(WRITING_PARK_NANOS);
                 }
             }
+
+            // a station that wrote since the snapshot started has saved the count it had before
+            return epoch(state) == (snapshotEpoch & Integer.MAX_VALUE) ? states.get(slot + 2) : count(state);
         }
     }
 
-    public static final int NUM_STATIONS = 4;
+    // how the overseer learns about the total
+    //  - POLLING: the original design, a consistent total every q ms, every q / 10 ms while entries are stopped
+    //  - EVENTS: the overseer sleeps until a station reports the system full or a drain round done
+    public enum Control {
+        POLLING, EVENTS;
+    }
+
+    // crossings reported by the stations
+    private static final int FULL = 1;
+    private static final int DRAINED = 2;
+
+    public static final int DEFAULT_STATIONS = 4;
+
+    // stations summed by one leaf of the tree reduction
+    private static final int GROUP_SIZE = 256;
+
+    // longs between two state words: 128 bytes, so neither the words nor the lines the cpu prefetches in pairs are shared
+    private static final int STRIDE = 16;
+
+    // marks the word of a station while it is being written
+    private static final long WRITING = 1L << 63;
+
+    // spins on a word being written before parking: the station is a few stores away from finishing, unless it was descheduled
+    private static final int MAX_SPINS = 100;
+    private static final long WRITING_PARK_NANOS = 10_000;
+
+    // stations a station without tokens tries before turning the passenger away
+    private static final int STEAL_PROBES = 8;
+
+    public final int numStations;
     private Station[] stations;
-    private Object[] locks;
+
+    // for station i, the state word at i * STRIDE, the admission tokens the station holds at i * STRIDE + 1, and the count it
+    // held when the epoch of its last write started at i * STRIDE + 2
+    // the tokens share the line of the state word: the station writes both, other stations only touch the tokens to steal
+    private final AtomicLongArray states;
+
+    // epoch of the last snapshot, only bumped by the overseer
+    private volatile int epoch;
+
+    // runs the stations, and runs the tree reductions of the overseer
+    private final ScheduledExecutorService stationPool;
+    private final ForkJoinPool tallyPool;
+
+    // station writes in progress that snapshots had to wait for
+    public long waitedWrites;
+
+    // time the last consistent total took
+    public long snapshotNanos;
+
+    // steals of tokens between stations, and passengers turned away because no token was found
+    public final LongAdder stolenTokens;
+    public final LongAdder deniedEntries;
+
+    // updates of the progress of drain rounds, the only line every station writes
+    public final LongAdder sharedUpdates;
+
     private int maxCapacity;
     private int minBound;
     private int observerCount;
     private boolean normalPeriodicity;
     private int period;
 
+    // set when a sweep found no token, cleared when a token is handed back
+    private volatile boolean tokensExhausted;
+
+    public final Control control;
+    private volatile boolean running;
+    private volatile Thread overseer;
+
+    // whether the overseer prints the count every time it computes it
+    public boolean verbose;
+
+    // drain round in progress, null while entries are allowed
+    private volatile Drain drain;
+
+    // crossings reported since the overseer last looked, and the time of the first crossing that called for a reaction since
+    // the last one, 0 when none
+    private final AtomicInteger pendingEvents;
+    private final AtomicLong crossingNanos;
+
+    // times the overseer woke up, times it changed the flags of the stations, and the time from a crossing to the change.
+    // only written by the overseer
+    public long wakeups;
+    public long reactions;
+    public long reactionNanos;
+    public long maxReactionNanos;
+
     public MetroSystem(int maxCapacity, int interval) {
-        // instantiate stations and locks
-        stations = new Station[NUM_STATIONS];
-        locks = new Object[NUM_STATIONS];
+        this(maxCapacity, interval, DEFAULT_STATIONS);
+    }
 
-        for (int i = 0; i < NUM_STATIONS; i++) {
-            locks[i] = new Object();
-            stations[i] = new Station(locks[i]);
+    public MetroSystem(int maxCapacity, int interval, int numStations) {
+        this(maxCapacity, interval, numStations, Control.EVENTS);
+    }
+
+    public MetroSystem(int maxCapacity, int interval, int numStations, Control control) {
+        // instantiate stations and their state words
+        this.numStations = numStations;
+        stations = new Station[numStations];
+        states = new AtomicLongArray(numStations * STRIDE);
+
+        for (int i = 0; i < numStations; i++) {
+            stations[i] = new Station(i);
+
+            // spread the tokens evenly, the first stations take the remainder
+            states.set(i * STRIDE + 1, maxCapacity / numStations + (i < maxCapacity % numStations ? 1 : 0));
         }
 
+        stolenTokens = new LongAdder();
+        deniedEntries = new LongAdder();
+        sharedUpdates = new LongAdder();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        stationPool = Executors.newScheduledThreadPool(cores);
+        tallyPool = new ForkJoinPool(cores);
+
 
         this.maxCapacity = maxCapacity;
         this.minBound =  (int) (0.75 * maxCapacity);
@@ -80,66 +439,192 @@ public class MetroSystem implements Runnable {
         this.normalPeriodicity = true;
 
         this.observerCount = 0;
-        
+
+        this.tokensExhausted = false;
+        this.control = control;
+        this.running = true;
+        this.verbose = true;
+        this.pendingEvents = new AtomicInteger();
+        this.crossingNanos = new AtomicLong();
+    }
+
+    // epochs wrap around within 31 bits, only equality is ever tested
+    private static long pack(int epoch, int count) {
+        return ((long) (epoch & Integer.MAX_VALUE) << 32) | (count & 0xFFFFFFFFL);
+    }
+
+    private static int epoch(long state) {
+        return (int) (state >>> 32) & Integer.MAX_VALUE;
+    }
+
+    private static int count(long state) {
+        return (int) state;
+    }
+
+    // total of the station counts at one moment, without stopping the stations
+    private int snapshotCount() {
+        long start = System.nanoTime();
+
+        int snapshotEpoch = this.epoch + 1;
+        this.epoch = snapshotEpoch;
+
+        Tally tally = new Tally(0, numStations, snapshotEpoch);
+        tallyPool.invoke(tally);
+
+        this.waitedWrites += tally.waits;
+        this.snapshotNanos = System.nanoTime() - start;
+        return (int) tally.count;
+    }
+
+    // arms a drain round for the passengers that must still leave for count to fall below the lower bound. the polling
+    // overseer decides on its own snapshots and only uses the round to time the crossing, so it always takes single passengers
+    private void arm(int count) {
+        long needed = count - minBound + 1;
+        int batch = control == Control.EVENTS ? (int) (1 + needed / (2L * numStations)) : 1;
+
+        // a station holds back at most batch - 1, so the threshold is at least half of what is needed
+        this.drain = new Drain(batch, needed - (long) numStations * (batch - 1));
+    }
+
+    // called by a station whose change crossed a bound: records the first crossing and wakes the overseer if it waits for events
+    private void signal(int event) {
+        crossingNanos.compareAndSet(0, System.nanoTime());
+        pendingEvents.getAndUpdate(events -> events | event);
+
+        if (control == Control.EVENTS) {
+            LockSupport.unpark(overseer);
+        }
+    }
+
+    // sets the flag of every station. false if they already had it
+    private boolean configure(boolean allowEntry) {
+        if (allowEntry == this.normalPeriodicity) {
+            return false;
+        }
+
+        for (int i = 0; i < numStations; i++) {
+            stations[i].allowEntry = allowEntry;
+        }
+
+        this.normalPeriodicity = allowEntry;
+        return true;
+    }
+
+    // counts a change of the flags, and measures it from the crossing that called for it, if one was reported
+    // the caller takes the time of the crossing together with the events it handles, whether or not they change the flags,
+    // so a crossing that called for nothing is never used to measure a later reaction
+    private void reacted(long crossed) {
+        this.reactions++;
+
+        if (crossed != 0) {
+            long reaction = System.nanoTime() - crossed;
+            this.reactionNanos += reaction;
+            this.maxReactionNanos = Math.max(this.maxReactionNanos, reaction);
+        }
     }
 
     public void run() {
-        // start the stations
-        for (Station s : stations) {
-            Thread t = new Thread(s);
-            t.start();
+        this.overseer = Thread.currentThread();
+
+        // start the stations, spread over the 10 ms period so they do not all step at the same moment
+        for (int i = 0; i < numStations; i++) {
+            long offset = TimeUnit.MILLISECONDS.toMicros(10) * i / numStations;
+            stationPool.scheduleAtFixedRate(stations[i], offset, TimeUnit.MILLISECONDS.toMicros(10), TimeUnit.MICROSECONDS);
         }
 
-        while (true) {
-            // acquire locks on all stations
-            // this prevents passengers from being admitted or for passengers to leave
-            synchronized (this.locks[0]) {
-                synchronized (this.locks[1]) {
-                    synchronized (this.locks[2]) {
-                        synchronized (this.locks[3]) {
-                            // tally the total number of passengers
-                            this.observerCount = 0;
-
-                            for (int i = 0; i < NUM_STATIONS; i++) {
-                                this.observerCount += stations[i].localCount;
-                            }
-
-                            boolean allowEntry;
-
-                            // if we are checking normally, we have not been over cap previously
-                            // then we allow entry if the count is less than the cap and disallow entry when the sum is over the cap
-
-                            // otherwise, if we are in only allowing people out : this means that we recheck until the station reaches 0.75n capacity
-                            if (this.normalPeriodicity) {
-                                if (this.observerCount < this.maxCapacity) {
-                                    allowEntry = true;
-                                } else {
-                                    allowEntry = false;
-                                    this.normalPeriodicity = false;
-                                }
-                            } else {
-                                // if we find that the station has reached 0.75n capacity, we can resume operating as normal
-                                if (this.observerCount < this.minBound) {
-                                    allowEntry = true;
-                                    this.normalPeriodicity = true;
-                                } else {
-                                    allowEntry = false;
-                                }
-                            }
-                            
-                            // configure stations to allow passengers or not
-                            for (int i = 0; i < NUM_STATIONS; i++) {
-                                stations[i].allowEntry = allowEntry;
-                            }
-                            
-                        }
-                    }
+        if (control == Control.EVENTS) {
+            runEvents();
+        } else {
+            runPolling();
+        }
+
+        stationPool.shutdownNow();
+        tallyPool.shutdown();
+    }
+
+    // the overseer only wakes up when a station reports a crossing
+    private void runEvents() {
+        while (running) {
+            int events = pendingEvents.getAndSet(0);
+
+            // park may also return for no reason, only a wake up with events to handle is counted
+            if (events == 0) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            this.wakeups++;
+
+            long crossed = crossingNanos.getAndSet(0);
+
+            // the system is full: stop entries until it is back under 0.75n. a full system reported by a station that read the
+            // flag just before it was cleared is already being drained
+            if ((events & FULL) != 0 && configure(false)) {
+                reacted(crossed);
+                crossed = 0;
+            }
+
+            // a round is only armed while entries are stopped, so a report of one done is checked whenever entries are
+            // stopped. the snapshot comes after the flags, so it only misses the entries of steps that read the flag earlier
+            if (!this.normalPeriodicity) {
+                this.observerCount = snapshotCount();
+
+                if (this.observerCount < this.minBound) {
+                    this.drain = null;
+                    configure(true);
+                    reacted(crossed);
+                } else {
+                    arm(this.observerCount);
+                }
+            }
+
+            if (verbose) {
+                System.out.println("Overseer Count : " + Integer.toString(this.observerCount));
+            }
+        }
+    }
+
+    private void runPolling() {
+        while (running) {
+            this.wakeups++;
+
+            // tally the total number of passengers, the stations keep admitting and releasing passengers meanwhile
+            this.observerCount = snapshotCount();
+
+            // the tokens keep the total from ever exceeding the cap, so a station that found no token tells us it was reached
+            // the events are taken after the total, so a crossing they report is already in the total or is the full system
+            boolean full = (pendingEvents.getAndSet(0) & FULL) != 0;
+            long crossed = crossingNanos.getAndSet(0);
+
+            boolean allowEntry;
+
+            // if we are checking normally, we have not been over cap previously
+            // then we allow entry if the count is less than the cap and disallow entry when the sum is over the cap
+
+            // otherwise, if we are in only allowing people out : this means that we recheck until the station reaches 0.75n capacity
+            if (this.normalPeriodicity) {
+                allowEntry = this.observerCount < this.maxCapacity && !full;
+            } else {
+                // if we find that the station has reached 0.75n capacity, we can resume operating as normal
+                allowEntry = this.observerCount < this.minBound;
+            }
+
+            // configure stations to allow passengers or not, and time the drain from stopping them on
+            if (configure(allowEntry)) {
+                reacted(crossed);
+
+                if (allowEntry) {
+                    this.drain = null;
+                } else {
+                    arm(snapshotCount());
                 }
             }
 
             // print the overseer count every time it is computed
-            String msg = "Overseer Count : " + Integer.toString(this.observerCount);
-            System.out.println(msg);
+            if (verbose) {
+                String msg = "Overseer Count : " + Integer.toString(this.observerCount);
+                System.out.println(msg);
+            }
 
             // if we are over capacity : check every q / 10 ms
             // if we are operating as normal : check every q milliseconds
@@ -150,30 +635,85 @@ public class MetroSystem implements Runnable {
                     Thread.sleep(period / 10);
                 }
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                return;
             }
         }
     }
 
+    // stops the overseer, which then stops the stations
+    public void stop() {
+        running = false;
+
+        Thread t = overseer;
+
+        if (t != null) {
+            t.interrupt();
+            LockSupport.unpark(t);
+        }
+    }
+
+    // runs the system for the given time in each design and prints one line for each
+    private static void compare(int n, int q, int stations, int seconds) {
+        System.out.printf("%-8s %10s %10s %12s %12s %10s %10s%n", "control", "wakeups/s", "reactions", "meanReactMs", "maxReactMs",
+            "denied/s", "shared/s");
+
+        for (Control control : Control.values()) {
+            MetroSystem m = new MetroSystem(n, q, stations, control);
+            m.verbose = false;
+
+            Thread t = new Thread(m);
+            t.start();
+
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+                m.stop();
+                t.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            System.out.printf("%-8s %10.1f %10d %12.3f %12.3f %10.1f %10.1f%n", control.name().toLowerCase(),
+                m.wakeups / (double) seconds, m.reactions, m.reactions == 0 ? 0 : m.reactionNanos / 1e6 / m.reactions,
+                m.maxReactionNanos / 1e6, m.deniedEntries.sum() / (double) seconds, m.sharedUpdates.sum() / (double) seconds);
+        }
+    }
 
     // entry point of the program - parse command line input and intitiate the metro system
-    // expected syntax is java MetroSystem(.java) n q
-    // depending on if using javac or not
+    // expected syntax is java MetroSystem(.java) n q [stations] [polling] [compare=<seconds>]
+    // depending on if using javac or not. q is only used by the polling overseer
     public static void main(String[] args) {
         int n;
         int q;
+        int stations = DEFAULT_STATIONS;
+        Control control = Control.EVENTS;
+        int compareSeconds = 0;
 
         try {
             n = Integer.parseInt(args[0]);
             q = Integer.parseInt(args[1]);
 
-            MetroSystem m = new MetroSystem(n, q);
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("polling")) {
+                    control = Control.POLLING;
+                } else if (args[i].startsWith("compare=")) {
+                    compareSeconds = Integer.parseInt(args[i].substring(8));
+                } else {
+                    stations = Integer.parseInt(args[i]);
+                }
+            }
+
+            if (compareSeconds > 0) {
+                compare(n, q, stations, compareSeconds);
+                return;
+            }
+
+            MetroSystem m = new MetroSystem(n, q, stations, control);
 
             Thread t = new Thread(m);
             t.start();
 
         } catch (Exception e) {
-            System.out.println("Only the following syntax is accepted: \"java MetroSystem.java n q\" where n and q are integers");
+            System.out.println("Only the following syntax is accepted: \"java MetroSystem.java n q [stations] [polling] [compare=<seconds>]\" where n, q and stations are integers");
         }
     } 
 }
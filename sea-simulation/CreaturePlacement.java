@@ -0,0 +1,117 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/*
+ *  Initial placement service for the sea simulation: a cell-jittered lattice.
+ *      - the volume is divided into cells of CELL x CELL x CELL squares
+ *      - every creature fits inside a 3 x 3 x 3 box, so a creature placed anywhere inside its own cell cannot overlap a creature in another cell
+ *      - creature i is given a random cell inside the i-th of k equal strides over all the cells, so cells are never shared
+ *        and the creatures are spread evenly over the whole volume whatever its density
+ *
+ *  Every creature is placed independently of the others, so placement runs in parallel.
+ */
+
+public final class CreaturePlacement {
+    public static final int CELL = 4;
+
+    // largest extent of any creature along one axis
+    private static final int EXTENT = 3;
+
+    private CreaturePlacement() {
+    }
+
+    // number of lattice cells available in a volume, i.e. the maximum number of creatures it can hold
+    public static long capacity(int width, int length, int height) {
+        return (long) (width / CELL) * (length / CELL) * (height / CELL);
+    }
+
+    // smallest cube side that holds numCreatures at the given fraction of occupied cells
+    public static int cubeSide(int numCreatures, double density) {
+        int cellsPerSide = (int) Math.ceil(Math.cbrt(Math.max(1, numCreatures) / density));
+        return cellsPerSide * CELL;
+    }
+
+    // creates the creatures of the simulation, in parallel, and checks that none of them overlap
+    public static SeaCreature[] place(SeaSimulation s) {
+        int cellsX = s.width / CELL;
+        int cellsY = s.length / CELL;
+        long cells = capacity(s.width, s.length, s.height);
+
+        SeaCreature placed[] = new SeaCreature[s.numCreatures];
+
+        IntStream.range(0, s.numCreatures).parallel().forEach(i -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            // pick a cell inside this creature's stride
+            long first = i * cells / s.numCreatures;
+            long last = (i + 1) * cells / s.numCreatures;
+            long cell = random.nextLong(first, last);
+
+            // jitter the creature inside the cell
+            int x = (int) (cell % cellsX) * CELL + random.nextInt(CELL - EXTENT + 1);
+            int y = (int) ((cell / cellsX) % cellsY) * CELL + random.nextInt(CELL - EXTENT + 1);
+            int z = (int) (cell / ((long) cellsX * cellsY)) * CELL + random.nextInt(CELL - EXTENT + 1);
+
+            // choose random creature to create
+            placed[i] = s.newCreature(random.nextInt(0, 3), x, y, z);
+        });
+
+        validate(s, placed);
+
+        return placed;
+    }
+
+    // checks that every creature is inside the volume and alone in its cell
+    // the cells are numbered with longs, a volume may hold more than 2^31 of them
+    public static void validate(SeaSimulation s, SeaCreature placed[]) {
+        long cellsX = s.width / CELL;
+        long cellsY = s.length / CELL;
+        long cellsZ = s.height / CELL;
+        long cells[] = new long[placed.length];
+
+        for (int i = 0; i < placed.length; i++) {
+            SeaCreature c = placed[i];
+            int cx = c.x / CELL;
+            int cy = c.y / CELL;
+            int cz = c.z / CELL;
+
+            boolean insideCell = c.x % CELL <= CELL - EXTENT && c.y % CELL <= CELL - EXTENT && c.z % CELL <= CELL - EXTENT;
+            boolean insideVolume = cx < cellsX && cy < cellsY && cz < cellsZ;
+
+            if (!insideCell || !insideVolume) {
+                throw new IllegalStateException(c + " placed outside of its cell at (" + c.x + "," + c.y + "," + c.z + ")");
+            }
+
+            cells[i] = (cz * cellsY + cy) * cellsX + cx;
+        }
+
+        // two creatures in the same cell end up next to each other once sorted
+        long sorted[] = cells.clone();
+        Arrays.parallelSort(sorted);
+
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                throw new IllegalStateException(occupant(placed, cells, sorted[i]) + " placed in an occupied cell");
+            }
+        }
+    }
+
+    // the second creature placed in the cell, to name it in the error
+    private static String occupant(SeaCreature placed[], long cells[], long cell) {
+        boolean seen = false;
+
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == cell) {
+                if (seen) {
+                    SeaCreature c = placed[i];
+                    return c + " at (" + c.x + "," + c.y + "," + c.z + ")";
+                }
+
+                seen = true;
+            }
+        }
+
+        return "cell " + cell;
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ *  Lock free allocator of unique ids.
+ *      - ids are reserved from a shared AtomicLong in blocks of blockSize
+ *      - every platform thread hands out the ids of its own block, so only one id in blockSize touches shared memory
+ *      - virtual threads are cheap and often spawn a single creature, a block each would waste the id space: they take
+ *        their ids one at a time from the shared counter, which is still a single atomic add and never blocks
+ *  Ids are unique but not dense: the unused rest of a thread's block is never handed out.
+ *
+ *  Expected syntax of the burst benchmark is java IdAllocator threads ids rounds
+ */
+
+public class IdAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final AtomicLong next;
+    private final int blockSize;
+
+    // next id and end of the block of the current thread
+    private final ThreadLocal<long[]> blocks;
+
+    public IdAllocator() {
+        this(1, DEFAULT_BLOCK_SIZE);
+    }
+
+    public IdAllocator(long first, int blockSize) {
+        this.next = new AtomicLong(first);
+        this.blockSize = blockSize;
+        this.blocks = ThreadLocal.withInitial(() -> new long[2]);
+    }
+
+    public long nextLong() {
+        if (Thread.currentThread().isVirtual()) {
+            return next.getAndIncrement();
+        }
+
+        long block[] = blocks.get();
+
+        if (block[0] == block[1]) {
+            block[0] = next.getAndAdd(blockSize);
+            block[1] = block[0] + blockSize;
+        }
+
+        return block[0]++;
+    }
+
+    // throws ArithmeticException once the int ids are exhausted rather than handing out duplicates
+    public int nextInt() {
+        return Math.toIntExact(nextLong());
+    }
+
+    // the previous generator, kept for the benchmark
+    private static int lastSynchronizedId = 0;
+
+    private static synchronized int synchronizedId() {
+        lastSynchronizedId++;
+        return lastSynchronizedId;
+    }
+
+    private interface Generator {
+        long next();
+    }
+
+    // every thread takes its ids as fast as it can, released together so all of them spawn at the same moment
+    private static double burst(int threads, int ids, Generator generator) {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread workers[] = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                ready.countDown();
+
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                for (int j = 0; j < ids; j++) {
+                    generator.next();
+                }
+            });
+
+            workers[i].start();
+        }
+
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        long start = System.nanoTime();
+        go.countDown();
+
+        for (Thread t : workers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return (double) threads * ids / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public static void main(String args[]) {
+        int threads = 0;
+        int ids = 0;
+        int rounds = 0;
+
+        try {
+            threads = Integer.parseInt(args[0]);
+            ids = Integer.parseInt(args[1]);
+            rounds = Integer.parseInt(args[2]);
+        } catch (Exception e) {
+            System.out.println("Expected integer inputs threads ids rounds");
+            System.exit(-1);
+        }
+
+        AtomicLong shared = new AtomicLong();
+        IdAllocator allocator = new IdAllocator();
+
+        System.out.printf("%-12s %8s %14s%n", "generator", "round", "ids/s");
+
+        // the first rounds warm up the jit, the last one is the one to read
+        for (int r = 1; r <= rounds; r++) {
+            System.out.printf("%-12s %8d %14.0f%n", "synchronized", r, burst(threads, ids, IdAllocator::synchronizedId));
+            System.out.printf("%-12s %8d %14.0f%n", "atomic", r, burst(threads, ids, shared::incrementAndGet));
+            System.out.printf("%-12s %8d %14.0f%n", "blocks", r, burst(threads, ids, allocator::nextLong));
+        }
+    }
+}
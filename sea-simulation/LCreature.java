@@ -52,12 +52,7 @@ public final class LCreature extends SeaCreature {
         // if able to acquire all locks, write the current reference into the grid
         // and release all previous locks, while clearing the references
         if (successfulMove) {
-            // set new references
-            this.simulation.grid[newX][newY][newZ] = this;
-            this.simulation.grid[newX + 1][newY][newZ] = this;
-            this.simulation.grid[newX][newY][newZ + 1] = this;
-            this.simulation.grid[newX][newY][newZ + 2] = this;
-            this.simulation.grid[newX][newY + 1][newZ + 2] = this;
+            beginMove();
 
             // reset old references
             this.simulation.grid[x][y][z] = null;
@@ -66,10 +61,15 @@ public final class LCreature extends SeaCreature {
             this.simulation.grid[x][y][z + 2] = null;
             this.simulation.grid[x][y + 1][z + 2] = null;
 
+            // set new references
+            this.simulation.grid[newX][newY][newZ] = this;
+            this.simulation.grid[newX + 1][newY][newZ] = this;
+            this.simulation.grid[newX][newY][newZ + 1] = this;
+            this.simulation.grid[newX][newY][newZ + 2] = this;
+            this.simulation.grid[newX][newY + 1][newZ + 2] = this;
+
             // update internal position
-            this.x = newX;
-            this.y = newY;
-            this.z = newZ;
+            endMove(newX, newY, newZ);
         } 
 
         // failed move: release all new locks
@@ -58,19 +58,19 @@ public final class LineCreature extends SeaCreature {
             successfulMove = this.acquireLock(newX, newY, newZ + 2);
         }
 
-        // if able to acquire all locks
+        // if able to acquire all locks, free the old squares and take the new ones
         if (successfulMove) {
+            beginMove();
+
+            this.simulation.grid[x][y][z] = null;
+            this.simulation.grid[x][y][z + 1] = null;
+            this.simulation.grid[x][y][z + 2] = null;
+
             this.simulation.grid[newX][newY][newZ] = this;
             this.simulation.grid[newX][newY][newZ + 1] = this;
             this.simulation.grid[newX][newY][newZ + 2] = this;
 
-            this.x = newX;
-            this.y = newY;
-            this.z = newZ;
-
-            this.simulation.grid[newX][newY][newZ] = null;
-            this.simulation.grid[newX][newY][newZ + 1] = null;
-            this.simulation.grid[newX][newY][newZ + 2] = null;
+            endMove(newX, newY, newZ);
         }
 
         // release locks
@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ *  Asynchronous sink for sea creature move events.
+ *      - creatures append fixed size binary records into a fixed number of ring buffers, the stripes, chosen by creature id
+ *      - a stripe is shared by several threads, so a record claims its slot with a compare and set on the tail and is marked
+ *        in the slot once written. the records of a creature always go through the same stripe and stay in order
+ *      - the stripes are sized from the threads that log (see stripesFor), never from the number of creatures, so a
+ *        hundred thousand creatures on virtual threads cost as much memory as a few per core
+ *      - a single background writer drains all the stripes into a file through a FileChannel
+ *      - when a ring is full the event is dropped and counted rather than blocking the creature, so the rings are sized
+ *        from the rate at which a stripe is written (see ringCapacityFor) and close warns if events were dropped anyway
+ *
+ *  Each record is 32 bytes (little endian):
+ *      - long timestamp (nanoTime), int creature id, byte event, byte creature kind, short padding
+ *      - long old position, long new position, each packed as 21 bits of x, y and z
+ *
+ *  The file can be rendered as text offline: java MoveEventLog events.bin
+ */
+
+public class MoveEventLog implements Runnable, AutoCloseable {
+    public static final byte MOVED = 0;
+    public static final byte FAILED = 1;
+    public static final byte OUT_OF_BOUNDS = 2;
+    public static final byte TERMINATED = 3;
+
+    public static final int RECORD_BYTES = 32;
+
+    // creature kinds, indexed by SeaCreature.kind()
+    private static final String KIND_NAMES[] = { "LineCreature", "StarCreature", "LCreature", "RocketCreature" };
+
+    private static final int COORDINATE_BITS = 21;
+    private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+
+    // each slot in a ring holds a record as 4 longs
+    private static final int SLOT_LONGS = 4;
+
+    public static final int DEFAULT_RING_CAPACITY = 256;
+    private static final int MAX_RING_CAPACITY = 1 << 20;
+
+    // only threads running at the same moment contend for a stripe, so a few stripes per core are enough
+    private static final int STRIPES_PER_CORE = 4;
+
+    // how long a ring must hold records while the writer does not run. it parks 1 ms when idle, but on a busy machine
+    // it competes with every creature thread for the cpu
+    private static final long WRITER_LAG_MILLIS = 50;
+
+    // multiple producer, single consumer ring of records
+    // creature threads claim records by advancing tail, the writer is the only one that advances head
+    private static final class Ring {
+        private final long slots[];
+        private final int mask;
+        private final AtomicLong head;
+        private final AtomicLong tail;
+
+        // for each slot, 1 + the number of the last record written into it, so the writer can tell a claimed slot that is
+        // still being written from a record it can take
+        private final AtomicLongArray written;
+
+        private Ring(int capacity) {
+            this.slots = new long[capacity * SLOT_LONGS];
+            this.mask = capacity - 1;
+            this.head = new AtomicLong();
+            this.tail = new AtomicLong();
+            this.written = new AtomicLongArray(capacity);
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int ringCapacity;
+
+    // a creature logs into the stripe at its identifier & (stripes.length - 1)
+    private final Ring stripes[];
+
+    private final Thread writer;
+    private volatile boolean running;
+
+    public final LongAdder dropped;
+    private long written;
+
+    public MoveEventLog(Path file) throws IOException {
+        this(file, stripesFor(Integer.MAX_VALUE), DEFAULT_RING_CAPACITY);
+    }
+
+    // smallest power of two number of stripes that gives each of the given logging threads its own stripe, up to
+    // STRIPES_PER_CORE per core
+    public static int stripesFor(int threads) {
+        int limit = (int) Math.min(threads, (long) STRIPES_PER_CORE * Runtime.getRuntime().availableProcessors());
+        int stripes = 1;
+
+        while (stripes < limit) {
+            stripes <<= 1;
+        }
+
+        return stripes;
+    }
+
+    // smallest power of two ring, at least the default, that holds what a stripe receives at eventsPerSecond during a writer lag
+    public static int ringCapacityFor(double eventsPerSecond) {
+        double records = eventsPerSecond * WRITER_LAG_MILLIS / 1000;
+        int capacity = DEFAULT_RING_CAPACITY;
+
+        while (capacity < records && capacity < MAX_RING_CAPACITY) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+
+    // stripes is the number of rings and ringCapacity the number of records buffered per ring, both must be powers of two
+    public MoveEventLog(Path file, int stripes, int ringCapacity) throws IOException {
+        if (Integer.bitCount(stripes) != 1 || Integer.bitCount(ringCapacity) != 1) {
+            throw new IllegalArgumentException("stripe count and ring capacity must be powers of two");
+        }
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(RECORD_BYTES * 2048).order(ByteOrder.LITTLE_ENDIAN);
+        this.ringCapacity = ringCapacity;
+
+        this.stripes = new Ring[stripes];
+
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Ring(ringCapacity);
+        }
+
+        this.dropped = new LongAdder();
+        this.written = 0;
+
+        this.running = true;
+        this.writer = new Thread(this, "move-event-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // called by creature threads. never blocks and never allocates
+    public void record(SeaCreature c, byte event, int oldX, int oldY, int oldZ, int newX, int newY, int newZ) {
+        Ring r = stripes[c.identifier & (stripes.length - 1)];
+        long t;
+
+        // claim the next record of the stripe, unless the writer has not yet freed it
+        do {
+            t = r.tail.get();
+
+            if (t - r.head.get() > r.mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!r.tail.compareAndSet(t, t + 1));
+
+        int i = (int) (t & r.mask) * SLOT_LONGS;
+        r.slots[i] = System.nanoTime();
+        r.slots[i + 1] = ((long) c.identifier << 16) | ((event & 0xFF) << 8) | (c.kind() & 0xFF);
+        r.slots[i + 2] = pack(oldX, oldY, oldZ);
+        r.slots[i + 3] = pack(newX, newY, newZ);
+
+        // publish the record to the writer
+        r.written.lazySet((int) (t & r.mask), t + 1);
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((x & COORDINATE_MASK) << (2 * COORDINATE_BITS)) | ((y & COORDINATE_MASK) << COORDINATE_BITS) | (z & COORDINATE_MASK);
+    }
+
+    private static int unpack(long packed, int shift) {
+        return (int) ((packed >>> shift) & COORDINATE_MASK);
+    }
+
+    // background writer: drain every stripe, park briefly when there is nothing to write
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                if (drain() == 0) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+
+            // final pass after the creatures have stopped
+            drain();
+            flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int drain() throws IOException {
+        int count = 0;
+
+        for (Ring r : stripes) {
+            long h = r.head.get();
+            long t = r.tail.get();
+
+            for (; h < t; h++) {
+                // a record claimed but not written yet holds back the later ones until the next pass, to keep them in order
+                if (r.written.get((int) (h & r.mask)) != h + 1) {
+                    break;
+                }
+
+                if (buffer.remaining() < RECORD_BYTES) {
+                    flush();
+                }
+
+                int i = (int) (h & r.mask) * SLOT_LONGS;
+                long meta = r.slots[i + 1];
+
+                buffer.putLong(r.slots[i]);
+                buffer.putInt((int) (meta >>> 16));
+                buffer.put((byte) (meta >>> 8));
+                buffer.put((byte) meta);
+                buffer.putShort((short) 0);
+                buffer.putLong(r.slots[i + 2]);
+                buffer.putLong(r.slots[i + 3]);
+                count++;
+            }
+
+            // hand the slots back to the creatures
+            r.head.lazySet(h);
+        }
+
+        written += count;
+        flush();
+
+        return count;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    // stops the writer once all buffered records are on disk
+    @Override
+    public void close() throws IOException {
+        running = false;
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        channel.close();
+
+        long lost = dropped.sum();
+
+        if (lost > 0) {
+            System.out.printf("Warning: dropped %d of %d move events (%.1f%%), the %d rings of %d records were too small%n",
+                lost, lost + written, 100.0 * lost / (lost + written), stripes.length, ringCapacity);
+        }
+    }
+
+    public long written() {
+        return written;
+    }
+
+    // renders a binary event file as the text the creatures used to print
+    public static void render(Path file, PrintStream out) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocateDirect(RECORD_BYTES * 2048).order(ByteOrder.LITTLE_ENDIAN);
+
+            // a read may return fewer bytes than asked for, or none, before the end of the file
+            boolean eof = false;
+
+            while (!eof) {
+                eof = in.read(b) == -1;
+                b.flip();
+
+                while (b.remaining() >= RECORD_BYTES) {
+                    long timestamp = b.getLong();
+                    int id = b.getInt();
+                    byte event = b.get();
+                    String kind = KIND_NAMES[b.get()];
+                    String creature = kind + " id: " + id;
+                    b.getShort();
+                    long from = b.getLong();
+                    long to = b.getLong();
+
+                    String oldPosition = "(" + unpack(from, 2 * COORDINATE_BITS) + "," + unpack(from, COORDINATE_BITS) + "," + unpack(from, 0) + ")";
+                    String newPosition = "(" + unpack(to, 2 * COORDINATE_BITS) + "," + unpack(to, COORDINATE_BITS) + "," + unpack(to, 0) + ")";
+
+                    String line = switch (event) {
+                        case MOVED -> creature + " has moved from " + oldPosition + " to " + newPosition + ".";
+                        case FAILED -> creature + " has failed to move. Stayed from " + oldPosition + " to " + newPosition + ".";
+                        case OUT_OF_BOUNDS -> "Failed move for " + kind + " with id " + id + ". Reason: attempted move out of bounds";
+                        default -> creature + " has terminated";
+                    };
+
+                    out.println(timestamp + " " + line);
+                }
+
+                b.compact();
+            }
+        }
+    }
+
+    // offline renderer entry point: java MoveEventLog file
+    public static void main(String args[]) {
+        if (args.length != 1) {
+            System.out.println("Expected the path of an event file");
+            System.exit(-1);
+        }
+
+        try {
+            render(Paths.get(args[0]), System.out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
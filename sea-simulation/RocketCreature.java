@@ -80,6 +80,8 @@ public final class RocketCreature extends SeaCreature {
         // at the end of the lock gathering, if we find that this object has all the necessary locks:
         // write references and release locks
         if (successfulMove) {
+            beginMove();
+
             // reset references
 
             // (0, 0, 0), (2, 0, 0), (0, 0, 1), (1, 0, 1), (2, 0, 1), (1, 0, 2)
@@ -90,18 +92,16 @@ public final class RocketCreature extends SeaCreature {
             this.simulation.grid[x + 2][y][z + 1] = null;
             this.simulation.grid[x + 1][y][z + 2] = null;
 
-            // update internal references
-            this.x = newX;
-            this.y = newY;
-            this.z = newZ;
-
             // set new references
-            this.simulation.grid[x][y][z] = this;
-            this.simulation.grid[x + 2][y][z] = this;
-            this.simulation.grid[x][y][z + 1] = this;
-            this.simulation.grid[x + 1][y][z + 1] = this;
-            this.simulation.grid[x + 2][y][z + 1] = this;
-            this.simulation.grid[x + 1][y][z + 2] = this;
+            this.simulation.grid[newX][newY][newZ] = this;
+            this.simulation.grid[newX + 2][newY][newZ] = this;
+            this.simulation.grid[newX][newY][newZ + 1] = this;
+            this.simulation.grid[newX + 1][newY][newZ + 1] = this;
+            this.simulation.grid[newX + 2][newY][newZ + 1] = this;
+            this.simulation.grid[newX + 1][newY][newZ + 2] = this;
+
+            // update internal references
+            endMove(newX, newY, newZ);
         } 
 
         // release all the locks for the move, no longer need them
@@ -0,0 +1,256 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ *  Consistent snapshots of a running sea simulation, and binary checkpoints built from them.
+ *
+ *  Taking a snapshot never stops the creatures:
+ *      - the snapshot is published with a new epoch through SeaSimulation.snapshot
+ *      - a creature that moves for the first time after the publication saves the position it had before that move, in
+ *        SeaCreature.beginMove, before it frees any of its old squares
+ *      - the snapshot thread records every creature that has not moved yet, reading its position through the creature's seqlock
+ *      - whoever wins the CAS on the creature's snapshot epoch records it, so each creature is recorded exactly once
+ *  Every recorded position is the position of the creature at the moment the epoch was published, so the snapshot is a
+ *  consistent cut: a move into a square freed by a move after the cut is itself after the cut, because the creature that
+ *  freed the square had already saved its position on it. SeaCheckpointTest restores checkpoints taken under load.
+ *
+ *  Checkpoint file layout (little endian), written through a memory mapped file:
+ *      - header: int magic, int version, int width, int length, int height, int count, long epoch
+ *      - count records: int creature id, int creature kind, long position packed as 21 bits of x, y and z
+ */
+
+public class SeaCheckpoint {
+    public static final int MAGIC = 0x53454131;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+    public static final int RECORD_BYTES = 16;
+
+    private static final int COORDINATE_BITS = 21;
+    private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+
+    // marks a creature whose position has not been recorded yet
+    private static final long PENDING = -1;
+
+    // spins on a pending position before parking: the creature that owes it is a few instructions away from writing it,
+    // unless it was descheduled, in which case spinning only keeps it from running
+    private static final int MAX_SPINS = 100;
+    private static final long PENDING_PARK_NANOS = 10_000;
+
+    public final long epoch;
+
+    private final SeaSimulation simulation;
+    private final List<SeaCreature> creatures;
+    private final AtomicLongArray positions;
+
+    // time the creatures were exposed to this snapshot, from publication to the last recorded position
+    public long captureNanos;
+
+    private SeaCheckpoint(SeaSimulation simulation, long epoch) {
+        this.simulation = simulation;
+        this.creatures = simulation.creatures;
+        this.epoch = epoch;
+        this.positions = new AtomicLongArray(creatures.size());
+
+        for (int i = 0; i < creatures.size(); i++) {
+            positions.set(i, PENDING);
+        }
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((x & COORDINATE_MASK) << (2 * COORDINATE_BITS)) | ((y & COORDINATE_MASK) << COORDINATE_BITS) | (z & COORDINATE_MASK);
+    }
+
+    private static int unpack(long packed, int shift) {
+        return (int) ((packed >>> shift) & COORDINATE_MASK);
+    }
+
+    // called by a creature inside beginMove, with the position it is about to leave
+    void save(SeaCreature c, int x, int y, int z) {
+        long recorded = c.snapshotEpoch.get();
+
+        if (recorded < epoch && c.snapshotEpoch.compareAndSet(recorded, epoch)) {
+            positions.set(c.slot, pack(x, y, z));
+        }
+    }
+
+    // takes a consistent snapshot of the creatures of a started simulation. one snapshot is taken at a time
+    public static SeaCheckpoint take(SeaSimulation s) {
+        synchronized (s.snapshotLock) {
+            SeaCheckpoint snapshot = new SeaCheckpoint(s, ++s.lastSnapshotEpoch);
+            long start = System.nanoTime();
+
+            s.snapshot = snapshot;
+
+            for (SeaCreature c : snapshot.creatures) {
+                long recorded = c.snapshotEpoch.get();
+
+                if (recorded >= snapshot.epoch) {
+                    continue;
+                }
+
+                // the position is read before the CAS: if the creature moves in between, it wins the CAS and records the same position
+                long position = c.readPosition();
+
+                if (c.snapshotEpoch.compareAndSet(recorded, snapshot.epoch)) {
+                    snapshot.positions.set(c.slot, position);
+                }
+            }
+
+            // a creature that won the CAS may still be writing its position
+            for (int i = 0; i < snapshot.positions.length(); i++) {
+                for (int spins = 0; snapshot.positions.get(i) == PENDING; spins++) {
+                    if (spins < MAX_SPINS) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(PENDING_PARK_NANOS);
+                    }
+                }
+            }
+
+            s.snapshot = null;
+            snapshot.captureNanos = System.nanoTime() - start;
+
+            return snapshot;
+        }
+    }
+
+    // writes the snapshot through a memory mapped temporary file, then moves it over the checkpoint so a crash never leaves half a checkpoint
+    public void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = positions.length();
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) count * RECORD_BYTES);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(simulation.width);
+            out.putInt(simulation.length);
+            out.putInt(simulation.height);
+            out.putInt(count);
+            out.putLong(epoch);
+
+            for (int i = 0; i < count; i++) {
+                SeaCreature c = creatures.get(i);
+
+                out.putInt(c.identifier);
+                out.putInt(c.kind());
+                out.putLong(positions.get(i));
+            }
+
+            out.force();
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // creates a simulation holding the creatures of a checkpoint. the creatures are given new identifiers
+    public static SeaSimulation restore(Path file, int numSeconds, boolean useVirtualThreads) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException(file + " is not a sea simulation checkpoint");
+            }
+
+            int width = in.getInt();
+            int length = in.getInt();
+            int height = in.getInt();
+            int count = in.getInt();
+            in.getLong();
+
+            if (channel.size() < HEADER_BYTES + (long) count * RECORD_BYTES) {
+                throw new IOException(file + " is truncated");
+            }
+
+            SeaSimulation s = new SeaSimulation(width, length, height, count, numSeconds, useVirtualThreads);
+
+            for (int i = 0; i < count; i++) {
+                in.getInt();
+                int kind = in.getInt();
+                long position = in.getLong();
+
+                s.creatures.add(s.newCreature(kind, unpack(position, 2 * COORDINATE_BITS), unpack(position, COORDINATE_BITS), unpack(position, 0)));
+            }
+
+            return s;
+        }
+    }
+
+    // takes and writes a checkpoint every interval while the simulation runs
+    // it is stopped with stop rather than interrupted: an interrupt closes the mapped file under a write in progress
+    public static class Checkpointer implements Runnable {
+        private final SeaSimulation simulation;
+        private final Path file;
+        private final long intervalMillis;
+
+        // cleared by stop, a checkpoint being written when it is cleared is still completed
+        private volatile boolean running;
+        private volatile Thread thread;
+
+        public int checkpoints;
+        public long maxCaptureNanos;
+
+        public Checkpointer(SeaSimulation simulation, Path file, long intervalMillis) {
+            this.simulation = simulation;
+            this.file = file;
+            this.intervalMillis = intervalMillis;
+            this.running = true;
+            this.thread = null;
+            this.checkpoints = 0;
+            this.maxCaptureNanos = 0;
+        }
+
+        // asks the checkpointer to stop, waking it if it is waiting for the next interval
+        public void stop() {
+            running = false;
+
+            Thread t = thread;
+
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+
+            while (running && simulation.simluationStatus) {
+                // parkNanos may return early, so wait out the rest of the interval unless stopped
+                long deadline = System.nanoTime() + intervalMillis * 1_000_000L;
+                long pause;
+
+                while (running && (pause = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, pause);
+                }
+
+                if (!running) {
+                    return;
+                }
+
+                SeaCheckpoint snapshot = take(simulation);
+                maxCaptureNanos = Math.max(maxCaptureNanos, snapshot.captureNanos);
+
+                try {
+                    snapshot.write(file);
+                    checkpoints++;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ *  Regression test for the consistency of the checkpoints of a running simulation.
+ *  A creature used to free its old squares before saving its position into the snapshot, so a neighbour could move onto
+ *  them and be recorded there as well: the checkpoint then held two creatures on the same squares.
+ *  Checkpoints are taken while a crowded ocean moves, and every one of them must restore with each creature on its own
+ *  squares. Expected syntax is java SeaCheckpointTest.java, exits with 1 on failure
+ */
+
+public class SeaCheckpointTest {
+    // squares taken by each kind of creature, indexed by SeaCreature.kind()
+    private static final int SQUARES[] = { 3, 7, 5, 6 };
+
+    private static final int SIDE = 32;
+    private static final int CREATURES = 400;
+    private static final int SECONDS = 4;
+    private static final int CHECKPOINTS = 40;
+
+    // restores the checkpoint and counts the creatures that could not take their squares because another one held them
+    private static int overlapping(Path file) throws IOException {
+        SeaSimulation restored = SeaCheckpoint.restore(file, 0, false);
+        long expected = 0;
+        long occupied = 0;
+
+        for (SeaCreature c : restored.creatures) {
+            expected += SQUARES[c.kind()];
+        }
+
+        for (SeaCreature plane[][] : restored.grid) {
+            for (SeaCreature column[] : plane) {
+                for (SeaCreature c : column) {
+                    if (c != null) {
+                        occupied++;
+                    }
+                }
+            }
+        }
+
+        // a creature placed on a taken square gives up its whole move, so every overlap leaves squares unoccupied
+        return expected == occupied ? 0 : 1;
+    }
+
+    public static void main(String args[]) throws IOException, InterruptedException {
+        Path events = Files.createTempFile("sea-checkpoint-test", ".bin");
+        Path checkpoint = Files.createTempFile("sea-checkpoint-test", ".cp");
+
+        // the moves are logged rather than printed, and virtual threads keep a crowded ocean cheap
+        SeaSimulation s = new SeaSimulation(SIDE, SIDE, SIDE, CREATURES, SECONDS, true);
+        s.eventLog = new MoveEventLog(events);
+
+        Thread t = new Thread(s);
+        t.start();
+
+        // leave time for the placement and for the creatures to start moving
+        Thread.sleep(500);
+
+        int failed = 0;
+
+        for (int i = 0; i < CHECKPOINTS && t.isAlive(); i++) {
+            SeaCheckpoint.take(s).write(checkpoint);
+            failed += overlapping(checkpoint);
+
+            Thread.sleep(50);
+        }
+
+        t.join();
+        s.eventLog.close();
+
+        Files.deleteIfExists(events);
+        Files.deleteIfExists(checkpoint);
+
+        System.out.println(failed == 0 ? "PASS" : "FAIL, " + failed + " checkpoints restored creatures on the same squares");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
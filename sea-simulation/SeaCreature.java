@@ -4,7 +4,9 @@
 
 import java.util.ArrayList;
 import java.util.List;
+import java.lang.invoke.VarHandle;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 public sealed abstract class SeaCreature implements Runnable permits
@@ -25,8 +27,8 @@ public sealed abstract class SeaCreature implements Runnable permits
     // unique identifier with regards to each sea creature
     public final int identifier;
 
-    // static count to keep track of which values are unique
-    private static int lastUsedIdentifier = 0;
+    // hands out the unique identifiers, from a per thread block so spawning creatures never contends on a lock
+    private static final IdAllocator identifiers = new IdAllocator();
 
     // store reference to the simulation, which has the grid and the locks
     protected SeaSimulation simulation;
@@ -34,6 +36,20 @@ public sealed abstract class SeaCreature implements Runnable permits
     // stores the locks that the current object is holding for purposes of moving
     protected List<ReentrantLock> moveLocks;
 
+    // set by a slab owner while it moves this creature entirely inside the interior of its slab (see SlabPartition)
+    // no other thread can touch those squares, so the move is made without taking any locks
+    protected boolean ownedMove;
+
+    // when moved by a slab owner, the time in System.nanoTime of the next move of the creature (set by SlabPartition.partition)
+    long nextMoveNanos;
+
+    // seqlock over x, y, z: odd while the position is being written, so snapshots can read it without taking any lock
+    private volatile int seq;
+
+    // epoch of the last snapshot that has recorded this creature, and the index of the creature in the simulation
+    final AtomicLong snapshotEpoch;
+    int slot;
+
     public SeaCreature(int maxX, int maxY, int maxZ, int startX, int startY, int startZ, SeaSimulation s) {
         this.maxX = maxX;
         this.maxY = maxY;
@@ -47,11 +63,15 @@ public sealed abstract class SeaCreature implements Runnable permits
 
         this.simulation = s;
         this.moveLocks = new ArrayList<>();
+        this.ownedMove = false;
+
+        this.seq = 0;
+        this.snapshotEpoch = new AtomicLong();
+        this.slot = -1;
     }
 
-    public static synchronized int getUniqueIdentifier() {
-        SeaCreature.lastUsedIdentifier++;
-        return lastUsedIdentifier;
+    public static int getUniqueIdentifier() {
+        return identifiers.nextInt();
     }
 
     // defines if a move in the X, Y, Z direction is out of the bounds of the board
@@ -63,48 +83,142 @@ public sealed abstract class SeaCreature implements Runnable permits
     @Override
     public void run() {
         while (this.simulation.simluationStatus) {
-            // generate a random move for the sea creature -1, 0, +1 in the x, y, z axises
-            int xMove = ThreadLocalRandom.current().nextInt(-1, 2);
-            int yMove = ThreadLocalRandom.current().nextInt(-1, 2);
-            int zMove = ThreadLocalRandom.current().nextInt(-1, 2);
+            step();
+
+            try {
+                Thread.sleep(pauseMillis());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        terminated();
+    }
+
+    // some (random) amount of time between 10 and 50 milliseconds inclusive that a creature waits between two moves
+    static int pauseMillis() {
+        return ThreadLocalRandom.current().nextInt(10, 51);
+    }
+
+    // reports that the creature will not move again
+    public void terminated() {
+        if (this.simulation.eventLog != null) {
+            this.simulation.eventLog.record(this, MoveEventLog.TERMINATED, x, y, z, x, y, z);
+        } else {
+            System.out.println(this.toString() + " has terminated");
+        }
+    }
 
-            // check if this is in bounds - no synchronization is required
-            if (isOutOfBounds(xMove, yMove, zMove)) {
+    // makes a single random move attempt and reports its outcome
+    public void step() {
+        // generate a random move for the sea creature -1, 0, +1 in the x, y, z axises
+        int xMove = ThreadLocalRandom.current().nextInt(-1, 2);
+        int yMove = ThreadLocalRandom.current().nextInt(-1, 2);
+        int zMove = ThreadLocalRandom.current().nextInt(-1, 2);
+
+        // the event log is read once per move: null means the events are printed to the console
+        MoveEventLog log = this.simulation.eventLog;
+
+        // check if this is in bounds - no synchronization is required
+        if (isOutOfBounds(xMove, yMove, zMove)) {
+            this.simulation.failedMoves.increment();
+
+            if (log != null) {
+                log.record(this, MoveEventLog.OUT_OF_BOUNDS, x, y, z, x + xMove, y + yMove, z + zMove);
+            } else {
                 // print failure message to the console.
                 System.out.println("Failed move for " + this.getClass().getSimpleName() + " with id " + this.identifier + ". Reason: attempted move out of bounds");
+            }
+        } else {
+            // if the move is inside the bounds - attempt to acquire locks related to itself
+            int oldX = this.x;
+            int oldY = this.y;
+            int oldZ = this.z;
+            
+            boolean success = attemptMove(xMove, yMove, zMove);
+
+            if (success) {
+                this.simulation.successfulMoves.increment();
             } else {
-                // if the move is inside the bounds - attempt to acquire locks related to itself
-                int oldX = this.x;
-                int oldY = this.y;
-                int oldZ = this.z;
-                
-                boolean success = attemptMove(xMove, yMove, zMove);
-
-                if (success) {
-                    System.out.println(this.toString() + " has moved from (" + oldX + "," + oldY + "," + oldZ + ") to (" + this.x + "," + this.y + "," + this.z + ").");
-                } else {
-                    System.out.println(this.toString() + " has failed to move. Stayed from (" + oldX + "," + oldY + "," + oldZ + ") to (" + this.x + "," + this.y + "," + this.z + ").");
-                }
+                this.simulation.failedMoves.increment();
             }
 
-            // sleep for some (random) amount of time between 10 and 50 milliseconds inclusive
-            int sleepTime = ThreadLocalRandom.current().nextInt(10, 51);
+            if (log != null) {
+                log.record(this, success ? MoveEventLog.MOVED : MoveEventLog.FAILED, oldX, oldY, oldZ, this.x, this.y, this.z);
+            } else if (success) {
+                System.out.println(this.toString() + " has moved from (" + oldX + "," + oldY + "," + oldZ + ") to (" + this.x + "," + this.y + "," + this.z + ").");
+            } else {
+                System.out.println(this.toString() + " has failed to move. Stayed from (" + oldX + "," + oldY + "," + oldZ + ") to (" + this.x + "," + this.y + "," + this.z + ").");
+            }
+        }
+    }
 
-            try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    // starts moving the creature. called by attemptMove once it holds every new square, before it frees any old one
+    // the first move after a snapshot started saves the position the creature has now: an old square another creature can
+    // take is only freed after the save, so the snapshot never records two creatures on the same square
+    protected void beginMove() {
+        int s = this.seq;
+        this.seq = s + 1;
+        VarHandle.storeStoreFence();
+
+        // the snapshot is read after the seqlock is odd, so a snapshot reader either sees this move in progress or sees the save
+        SeaCheckpoint snapshot = this.simulation.snapshot;
+
+        if (snapshot != null) {
+            snapshot.save(this, this.x, this.y, this.z);
+        }
+    }
+
+    // moves the basis point of the creature, once attemptMove has written its new squares into the grid
+    protected void endMove(int newX, int newY, int newZ) {
+        this.x = newX;
+        this.y = newY;
+        this.z = newZ;
+
+        this.seq = this.seq + 1;
+    }
+
+    // reads a consistent x, y, z through the seqlock, packed as by SeaCheckpoint.pack
+    long readPosition() {
+        while (true) {
+            int before = this.seq;
+
+            if ((before & 1) == 0) {
+                int px = this.x;
+                int py = this.y;
+                int pz = this.z;
+
+                VarHandle.loadLoadFence();
+
+                if (this.seq == before) {
+                    return SeaCheckpoint.pack(px, py, pz);
+                }
             }
+
+            Thread.onSpinWait();
         }
+    }
 
-        System.out.println(this.toString() + " has terminated");
+    // numeric code for the kind of creature, used by the binary event log
+    public int kind() {
+        return switch (this) {
+            case LineCreature c -> 0;
+            case StarCreature c -> 1;
+            case LCreature c -> 2;
+            case RocketCreature c -> 3;
+        };
     }
 
     // tries to acquire a lock at the point x, y, z.
     // if successful, returns true and adds lock to the moveLocks list
     // returns false on failure
     protected boolean acquireLock(int x, int y, int z) {
-        this.simulation.locks[x][y][z].lock();
+        if (this.ownedMove) {
+            return this.simulation.grid[x][y][z] == null;
+        }
+
+        ReentrantLock lock = this.simulation.lockAt(x, y, z);
+        lock.lock();
         boolean successfulMove = true;
 
         try {
@@ -112,9 +226,9 @@ public sealed abstract class SeaCreature implements Runnable permits
             if (this.simulation.grid[x][y][z] != null) {
                 // set return and give up lock
                 successfulMove = false;
-                this.simulation.locks[x][y][z].unlock();
+                lock.unlock();
             } else {
-                this.moveLocks.add(this.simulation.locks[x][y][z]);
+                this.moveLocks.add(lock);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -1,7 +1,13 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class SeaSimulation implements Runnable {
@@ -15,86 +21,193 @@ public class SeaSimulation implements Runnable {
     public final int numCreatures;
     public final int numSeconds;
 
-    public boolean simluationStatus;
+    // volatile so that every creature thread observes the stop signal
+    public volatile boolean simluationStatus;
+
+    // run each creature on a virtual thread instead of a platform thread
+    public final boolean useVirtualThreads;
+
+    // number of creature threads that were started, and the outcome of every move attempt
+    // LongAdder keeps the counters off the creatures' critical path
+    public int threadsStarted;
+    public long placementNanos;
+    public final LongAdder successfulMoves;
+    public final LongAdder failedMoves;
+
+    // when above 0, the ocean is split into this many slabs, each moved by one worker thread, instead of one thread per creature
+    public int partitions;
+
+    // snapshot being taken, if any (see SeaCheckpoint). creatures read it on every move
+    public volatile SeaCheckpoint snapshot;
+    final Object snapshotLock;
+    long lastSnapshotEpoch;
+
+    // when set, a checkpoint of the running simulation is written to this file every checkpointIntervalMillis
+    public Path checkpointFile;
+    public long checkpointIntervalMillis;
+    public SeaCheckpoint.Checkpointer checkpointer;
+
+    // when set, creatures record their moves into this binary log instead of printing them to the console
+    public MoveEventLog eventLog;
+
+    // fraction of the placement lattice cells that hold a creature when no volume is given
+    public static final double DEFAULT_DENSITY = 0.5;
+
+    // lazily created locks are published with a CAS on the lock array slot
+    private static final VarHandle LOCK_SLOT = MethodHandles.arrayElementVarHandle(ReentrantLock[].class);
 
     public SeaSimulation(int numCreatures, int numSeconds) {
-        this.width = 5 * numCreatures;
-        this.length = 5 * numCreatures;
-        this.height = 5 * numCreatures;
+        this(numCreatures, numSeconds, false);
+    }
+
+    public SeaSimulation(int numCreatures, int numSeconds, boolean useVirtualThreads) {
+        this(CreaturePlacement.cubeSide(numCreatures, DEFAULT_DENSITY), CreaturePlacement.cubeSide(numCreatures, DEFAULT_DENSITY),
+            CreaturePlacement.cubeSide(numCreatures, DEFAULT_DENSITY), numCreatures, numSeconds, useVirtualThreads);
+    }
+
+    // the volume is chosen independently of the number of creatures, it only has to hold them (see CreaturePlacement.capacity)
+    public SeaSimulation(int width, int length, int height, int numCreatures, int numSeconds, boolean useVirtualThreads) {
+        long capacity = CreaturePlacement.capacity(width, length, height);
+
+        if (numCreatures > capacity) {
+            throw new IllegalArgumentException("a " + width + " x " + length + " x " + height + " volume holds at most " + capacity + " creatures");
+        }
+
+        this.width = width;
+        this.length = length;
+        this.height = height;
 
         // grid that holds the reference to all sea creature
         // instantiated as null
         grid = new SeaCreature[width][length][height];
 
         // locks that are held by the respective threads. lock x, y, z is head by the creature in the grid at x, y, z 
+        // the locks are created on first use (see lockAt), so an empty part of the ocean costs one reference per square
         locks = new ReentrantLock[width][length][height];
 
-        // instantiate locks
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < length; j++) {
-                for (int k = 0; k < height; k++) {
-                    locks[i][j][k] = new ReentrantLock();
-                }
-            } 
-        }
-
         this.numCreatures = numCreatures;
         this.numSeconds = numSeconds;
         this.simluationStatus = true;
+        this.useVirtualThreads = useVirtualThreads;
+
+        this.threadsStarted = 0;
+        this.placementNanos = 0;
+        this.successfulMoves = new LongAdder();
+        this.failedMoves = new LongAdder();
+        this.eventLog = null;
+        this.partitions = 0;
+
+        this.snapshot = null;
+        this.snapshotLock = new Object();
+        this.lastSnapshotEpoch = 0;
+        this.checkpointFile = null;
+        this.checkpointIntervalMillis = 0;
+        this.checkpointer = null;
         
         // list of creatures inside the grid
         creatures = new ArrayList<>();
     }
 
+    // returns the lock of the square x, y, z, creating it if no creature has used the square yet
+    public ReentrantLock lockAt(int x, int y, int z) {
+        ReentrantLock column[] = locks[x][y];
+        ReentrantLock lock = (ReentrantLock) LOCK_SLOT.getAcquire(column, z);
+
+        if (lock == null) {
+            // if another creature created the lock first, use theirs
+            ReentrantLock created = new ReentrantLock();
+            ReentrantLock witness = (ReentrantLock) LOCK_SLOT.compareAndExchange(column, z, null, created);
+
+            lock = (witness == null) ? created : witness;
+        }
+
+        return lock;
+    }
+
+    // instantiates a creature of the given kind (see SeaCreature.kind) with its basis point at x, y, z
+    // the bounds are the highest valid index on each axis for every kind. the rocket used to be given width, length and
+    // height, which let isOutOfBounds accept x + 2 == width and made the move index past the end of the grid
+    public SeaCreature newCreature(int kind, int x, int y, int z) {
+        return switch (kind) {
+            case 0 -> {
+                yield new LineCreature(width - 1, length - 1, height - 1, x, y, z, this);
+            }
+
+            case 1 -> {
+                yield new StarCreature(width - 1, length - 1, height - 1, x, y, z, this);
+            }
+
+            case 2 -> {
+                yield new LCreature(width - 1, length - 1, height - 1, x, y, z, this);
+            }
+
+            default -> {
+                yield new RocketCreature(width - 1, length - 1, height - 1, x, y, z, this);
+            }
+        };
+    }
+
     @Override
     public void run() {
         // initialise the simulation
         
-        // instantiate the sea creatures in a round robin fashion 
-        // we place each creature in its own 3 x 3 x 3 square to ensure that no squares intercept
-        for (int i = 0; i < numCreatures; i++) {
-            // choose random creature to create
-            int creatureNum = ThreadLocalRandom.current().nextInt(0, 3);
-
-            int numCreaturesInLayer = (width % 3) * (length % 3);
-
-            // choose starting location
-
-            // find z - axis value - each layer can store (width % 3) * (length % 3) creatures
-            int z = (i % numCreaturesInLayer) * 3;
-
-            // find column of the axis : 
-            int x = ((i / numCreaturesInLayer) % (width % 3)) * 3;
-            int y = ((i / numCreaturesInLayer) / (width % 3)) * 3;
-            
-            // instantiate creature
-            SeaCreature s = switch (creatureNum) {
-                case 0 -> {
-                    yield new LineCreature(width - 1, length - 1, height - 1, x, y, z, this);
-                }
+        // place the creatures in parallel on a jittered lattice, each creature in its own cell so that no squares intercept
+        // a simulation restored from a checkpoint already has its creatures
+        if (creatures.isEmpty()) {
+            long start = System.nanoTime();
+            creatures.addAll(Arrays.asList(CreaturePlacement.place(this)));
+            this.placementNanos = System.nanoTime() - start;
+        }
 
-                case 1 -> {
-                    yield new StarCreature(width - 1, length - 1, height - 1, x, y, z, this);
-                }
+        for (int i = 0; i < creatures.size(); i++) {
+            creatures.get(i).slot = i;
+        }
 
-                case 2 -> {
-                    yield new LCreature(width - 1, length - 1, height - 1, x, y, z, this);
-                }
+        // begin the simulation
+        // a virtual thread only occupies a carrier thread while its creature is moving. the blocking path in acquireLock
+        // uses ReentrantLock rather than a monitor, so a creature waiting for a square unmounts instead of pinning its carrier
+        Thread.Builder builder;
 
-                default -> {
-                    yield new RocketCreature(width, length, height, x, y, z, this);
-                }
-            };
+        if (useVirtualThreads) {
+            builder = Thread.ofVirtual().name("creature-", 0);
+        } else {
+            builder = Thread.ofPlatform().name("creature-", 0);
+        }
+
+        // in partitioned mode, the threads are the slab owners rather than the creatures
+        List<Runnable> tasks = new ArrayList<>();
+        SlabPartition slabs[] = null;
 
-            creatures.add(s);
+        if (partitions > 0) {
+            slabs = SlabPartition.partition(this, partitions);
+            tasks.addAll(Arrays.asList(slabs));
+        } else {
+            tasks.addAll(creatures);
         }
 
-        // begin the simulation
-        for (SeaCreature s : creatures) {
-            Thread t = new Thread(s);
-            t.start();
-        } 
+        List<Thread> threads = new ArrayList<>();
+
+        try {
+            for (Runnable task : tasks) {
+                threads.add(builder.start(task));
+                this.threadsStarted++;
+            }
+        } catch (OutOfMemoryError e) {
+            // the os refused to give us another thread: stop the creatures that did start and report the failure
+            this.simluationStatus = false;
+            joinAll(threads);
+
+            throw e;
+        }
         
+        Thread checkpointThread = null;
+
+        if (checkpointFile != null) {
+            checkpointer = new SeaCheckpoint.Checkpointer(this, checkpointFile, checkpointIntervalMillis);
+            checkpointThread = new Thread(checkpointer, "checkpointer");
+            checkpointThread.start();
+        }
+
         // run for n seconds
         try {
             Thread.sleep(this.numSeconds * 1000);
@@ -102,34 +215,132 @@ public class SeaSimulation implements Runnable {
             e.printStackTrace();
         }
 
-        // send signal to child thread to stop
+        // send signal to child thread to stop, and wait for every creature to finish its last move
         this.simluationStatus = false;
+        joinAll(threads);
+
+        // a checkpoint being written is completed before the checkpointer returns
+        if (checkpointThread != null) {
+            checkpointer.stop();
+            joinAll(List.of(checkpointThread));
+        }
+
+        if (slabs != null) {
+            for (SlabPartition slab : slabs) {
+                slab.terminateStranded();
+            }
+        }
+    }
+
+    private static void joinAll(List<Thread> threads) {
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     // entry point for the simulation
     public static void main(String args[]) {
         int k = 0;
         int n = 0;
+        boolean virtual = false;
+        String logFile = null;
+        int volume[] = null;
+        int slabs = 0;
+        String checkpoint[] = null;
+        String restoreFile = null;
 
-        // parse commant line args
+        // parse commant line args. optional flags after k and n:
+        //  - "virtual" runs the creatures on virtual threads
+        //  - "log=<file>" records the moves into a binary event file instead of printing them (render with java MoveEventLog <file>)
+        //  - "slabs=<p>" moves the creatures with p slab owner threads instead of one thread per creature
+        //  - "volume=<width>x<length>x<height>" sets the size of the ocean, by default it is sized to fill half of the placement cells
+        //  - "checkpoint=<file>,<ms>" writes a checkpoint of the running simulation to file every ms milliseconds
+        //  - "restore=<file>" starts from the creatures of a checkpoint, k and the volume are then taken from the file
         try {
             k = Integer.parseInt(args[0]);
             n = Integer.parseInt(args[1]);
+
+            for (int i = 2; i < args.length; i++) {
+                if (args[i].equals("virtual")) {
+                    virtual = true;
+                } else if (args[i].startsWith("log=")) {
+                    logFile = args[i].substring(4);
+                } else if (args[i].startsWith("slabs=")) {
+                    slabs = Integer.parseInt(args[i].substring(6));
+                } else if (args[i].startsWith("checkpoint=")) {
+                    checkpoint = args[i].substring(11).split(",");
+                    Long.parseLong(checkpoint[1]);
+                } else if (args[i].startsWith("restore=")) {
+                    restoreFile = args[i].substring(8);
+                } else if (args[i].startsWith("volume=")) {
+                    String sides[] = args[i].substring(7).split("x");
+                    volume = new int[] { Integer.parseInt(sides[0]), Integer.parseInt(sides[1]), Integer.parseInt(sides[2]) };
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
         } catch (Exception e) {
-            System.out.println("Expected integer inputs k and n");
+            System.out.println("Expected integer inputs k and n, optionally followed by \"virtual\", \"log=<file>\", \"slabs=<p>\", \"volume=<width>x<length>x<height>\", \"checkpoint=<file>,<ms>\" and \"restore=<file>\"");
             System.exit(-1);
         }
 
         // if we have values, start simlutation
         System.out.println("Starting simluation");
 
-        SeaSimulation s = new SeaSimulation(k, n);
-        Thread t = new Thread(s);
-        t.start();
+        SeaSimulation s = null;
+
+        try {
+            if (restoreFile != null) {
+                s = SeaCheckpoint.restore(Paths.get(restoreFile), n, virtual);
+                k = s.numCreatures;
+            } else if (volume != null) {
+                s = new SeaSimulation(volume[0], volume[1], volume[2], k, n, virtual);
+            } else {
+                s = new SeaSimulation(k, n, virtual);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(-1);
+        }
+
+        s.partitions = slabs;
+
+        if (checkpoint != null) {
+            s.checkpointFile = Paths.get(checkpoint[0]);
+            s.checkpointIntervalMillis = Long.parseLong(checkpoint[1]);
+        }
 
         try {
+            if (logFile != null) {
+                // a creature logs a move every 30 ms on average (see SeaCreature.pauseMillis) and a slab owner logs those of all its
+                // creatures. the stripes share the events of every creature, and hold twice their share as the bursts of several
+                // threads can land on the same stripe
+                int threads = slabs > 0 ? SlabPartition.slabCount(s, slabs) : k;
+                int stripes = MoveEventLog.stripesFor(threads);
+
+                s.eventLog = new MoveEventLog(Paths.get(logFile), stripes, MoveEventLog.ringCapacityFor(2 * k * 1000.0 / 30 / stripes));
+            }
+
+            Thread t = new Thread(s);
+            t.start();
             t.join();
-        } catch (InterruptedException e) {
+
+            System.out.println("Placed " + k + " creatures in " + (s.placementNanos / 1_000_000) + " ms");
+            System.out.println("Moves: " + s.successfulMoves.sum() + " successful, " + s.failedMoves.sum() + " failed");
+
+            if (s.checkpointer != null) {
+                System.out.println("Wrote " + s.checkpointer.checkpoints + " checkpoints, longest capture " + (s.checkpointer.maxCaptureNanos / 1000) + " us");
+            }
+
+            if (s.eventLog != null) {
+                s.eventLog.close();
+                System.out.println("Recorded " + s.eventLog.written() + " events, dropped " + s.eventLog.dropped.sum());
+            }
+        } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
         
@@ -0,0 +1,101 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.consumer.RecordingStream;
+
+/*
+ *  Compares platform threads against virtual threads for the sea simulation.
+ *  For each creature count, the simulation is run once per thread mode and we report:
+ *      - how long the initial placement took
+ *      - how many creature threads could be started
+ *      - the peak number of platform threads alive in the process
+ *      - move throughput, in total and per creature (a creature sleeps 10 - 50 ms per move, so ~33 moves/s is the ceiling)
+ *      - the number of times a virtual thread blocked while pinned to its carrier (should always be 0)
+ *
+ *  The per move console output is discarded while measuring so that the console lock does not dominate the numbers.
+ *  Expected syntax is java SeaSimulationBenchmark n k1 k2 k3 ... where n is the number of seconds per run
+ */
+
+public class SeaSimulationBenchmark {
+    // per creature throughput below this fraction of the ideal rate means the creature count is no longer sustainable
+    private static final double SUSTAINABLE_FRACTION = 0.8;
+    private static final double IDEAL_MOVES_PER_SECOND = 1000.0 / 30.0;
+
+    public static void main(String args[]) {
+        int n = 0;
+        int counts[] = null;
+
+        try {
+            n = Integer.parseInt(args[0]);
+            counts = new int[args.length - 1];
+
+            for (int i = 1; i < args.length; i++) {
+                counts[i - 1] = Integer.parseInt(args[i]);
+            }
+
+            if (counts.length == 0) {
+                throw new IllegalArgumentException();
+            }
+        } catch (Exception e) {
+            System.out.println("Expected integer inputs n k1 k2 ...");
+            System.exit(-1);
+        }
+
+        PrintStream console = System.out;
+        console.printf("%-9s %-9s %11s %9s %12s %12s %14s %8s %12s%n",
+            "mode", "creatures", "placementMs", "started", "peakThreads", "moves/s", "moves/s/crt", "pinned", "sustainable");
+
+        for (int k : counts) {
+            for (boolean virtual : new boolean[] { false, true }) {
+                runOnce(console, k, n, virtual);
+            }
+        }
+    }
+
+    private static void runOnce(PrintStream console, int k, int n, boolean virtual) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        threadBean.resetPeakThreadCount();
+
+        SeaSimulation simulation = new SeaSimulation(k, n, virtual);
+        String failure = null;
+
+        // count every time a virtual thread parks while pinned to its carrier
+        LongAdder pinned = new LongAdder();
+        RecordingStream recording = new RecordingStream();
+        recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+        recording.onEvent("jdk.VirtualThreadPinned", event -> pinned.increment());
+        recording.startAsync();
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        long start = System.nanoTime();
+
+        try {
+            simulation.run();
+        } catch (OutOfMemoryError e) {
+            failure = e.getMessage();
+        } finally {
+            System.setOut(console);
+        }
+
+        double seconds = (System.nanoTime() - start - simulation.placementNanos) / 1e9;
+        recording.close();
+
+        long moves = simulation.successfulMoves.sum() + simulation.failedMoves.sum();
+        double movesPerSecond = moves / seconds;
+        double perCreature = simulation.threadsStarted == 0 ? 0 : movesPerSecond / simulation.threadsStarted;
+        boolean sustainable = failure == null && perCreature >= SUSTAINABLE_FRACTION * IDEAL_MOVES_PER_SECOND;
+
+        console.printf("%-9s %-9d %11d %9d %12d %12.0f %14.1f %8d %12s%n",
+            virtual ? "virtual" : "platform", k, simulation.placementNanos / 1_000_000, simulation.threadsStarted, threadBean.getPeakThreadCount(),
+            movesPerSecond, perCreature, pinned.sum(), sustainable ? "yes" : "no");
+
+        if (failure != null) {
+            console.println("    thread creation failed: " + failure);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ *  Spatially partitioned ownership for the sea simulation.
+ *  The ocean is cut along the x axis into slabs, and each slab is owned by one worker thread which moves every creature
+ *  whose basis point lies inside the slab, one move per creature per round.
+ *
+ *  Each slab has a boundary band of BAND squares on both of its x faces:
+ *      - a creature can reach at most 3 squares past its basis point (its extent plus a move of 1), so creatures owned by a
+ *        neighbouring slab can reach into our band but never past it
+ *      - squares past the band (the interior) are therefore only ever touched by the owner of the slab
+ *      - a move whose old and new squares all lie in the interior needs no synchronization at all
+ *      - any move that touches a band square goes through the usual locking protocol of SeaCreature.acquireLock
+ *
+ *  When a creature's basis point leaves the slab, it is handed off to the owner of its new slab through that slab's inbox.
+ *
+ *  Creatures keep the pace they have on their own thread: each one waits 10 to 50 ms between two moves (see
+ *  SeaCreature.pauseMillis). The owner moves the creatures whose next move is due, then parks until the earliest deadline.
+ */
+
+public class SlabPartition implements Runnable {
+    // width of the band of locked squares on each face of a slab
+    public static final int BAND = 4;
+
+    // narrowest slab that still has an interior: isInterior needs lo + BAND + 1 <= x <= hi - BAND - 4 for some basis point x
+    public static final int MIN_SLAB_WIDTH = 2 * BAND + 5;
+
+    // longest pause between two moves of a creature, an empty slab checks its inbox and the stop signal this often
+    private static final long MAX_PAUSE_NANOS = 50_000_000;
+
+    private final SeaSimulation simulation;
+    private final SlabPartition slabs[];
+    private final int index;
+
+    // squares lo <= x < hi belong to this slab
+    private final int lo;
+    private final int hi;
+
+    // creatures owned by this slab. only touched by the owner thread
+    private final List<SeaCreature> owned;
+
+    // creatures handed off by the neighbouring slabs
+    private final ConcurrentLinkedQueue<SeaCreature> inbox;
+
+    // thread that owns the slab, unparked when a creature is handed off to it
+    private volatile Thread owner;
+
+    private SlabPartition(SeaSimulation simulation, SlabPartition slabs[], int index, int lo, int hi) {
+        this.simulation = simulation;
+        this.slabs = slabs;
+        this.index = index;
+        this.lo = lo;
+        this.hi = hi;
+        this.owned = new ArrayList<>();
+        this.inbox = new ConcurrentLinkedQueue<>();
+    }
+
+    // splits the ocean of the simulation into at most count slabs, and hands every creature to the slab that owns it
+    public static SlabPartition[] partition(SeaSimulation simulation, int count) {
+        count = slabCount(simulation, count);
+
+        SlabPartition slabs[] = new SlabPartition[count];
+
+        for (int i = 0; i < count; i++) {
+            int lo = (int) ((long) i * simulation.width / count);
+            int hi = (int) ((long) (i + 1) * simulation.width / count);
+
+            slabs[i] = new SlabPartition(simulation, slabs, i, lo, hi);
+        }
+
+        // every creature is due for its first move right away
+        long now = System.nanoTime();
+
+        for (SeaCreature c : simulation.creatures) {
+            c.nextMoveNanos = now;
+            slabs[slabOf(slabs, c.x)].owned.add(c);
+        }
+
+        return slabs;
+    }
+
+    // number of slabs partition makes when asked for count: every slab must be at least MIN_SLAB_WIDTH wide
+    public static int slabCount(SeaSimulation simulation, int count) {
+        return Math.max(1, Math.min(count, simulation.width / MIN_SLAB_WIDTH));
+    }
+
+    // binary search for the slab that contains x
+    private static int slabOf(SlabPartition slabs[], int x) {
+        int low = 0;
+        int high = slabs.length - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (slabs[mid].lo <= x) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low;
+    }
+
+    // true if every square the creature occupies now, or could occupy after its next move, is in the interior of this slab
+    private boolean isInterior(SeaCreature c) {
+        return c.x - 1 >= lo + BAND && c.x + 3 < hi - BAND;
+    }
+
+    @Override
+    public void run() {
+        this.owner = Thread.currentThread();
+
+        while (this.simulation.simluationStatus) {
+            // adopt the creatures that crossed into this slab, they keep the deadline their previous owner gave them
+            SeaCreature arrived;
+
+            while ((arrived = inbox.poll()) != null) {
+                owned.add(arrived);
+            }
+
+            long now = System.nanoTime();
+            long earliest = now + MAX_PAUSE_NANOS;
+            int i = 0;
+
+            while (i < owned.size()) {
+                SeaCreature c = owned.get(i);
+
+                if (c.nextMoveNanos - now > 0) {
+                    earliest = Math.min(earliest, c.nextMoveNanos);
+                    i++;
+                    continue;
+                }
+
+                c.ownedMove = isInterior(c);
+                c.step();
+                c.ownedMove = false;
+
+                c.nextMoveNanos = now + SeaCreature.pauseMillis() * 1_000_000L;
+                earliest = Math.min(earliest, c.nextMoveNanos);
+
+                // hand the creature off if its basis point has left the slab
+                if (c.x < lo || c.x >= hi) {
+                    SeaCreature last = owned.remove(owned.size() - 1);
+
+                    if (i < owned.size()) {
+                        owned.set(i, last);
+                    }
+
+                    SlabPartition next = slabs[slabOf(slabs, c.x)];
+                    next.inbox.add(c);
+
+                    // the new owner may be parked past the deadline of the creature
+                    Thread nextOwner = next.owner;
+
+                    if (nextOwner != null) {
+                        LockSupport.unpark(nextOwner);
+                    }
+                } else {
+                    i++;
+                }
+            }
+
+            // a hand off unparks us early, the loop then adopts the creature and parks again
+            long pause = earliest - System.nanoTime();
+
+            if (pause > 0) {
+                LockSupport.parkNanos(this, pause);
+            }
+        }
+
+        // creatures still in flight between slabs are reported by terminateStranded
+        for (SeaCreature c : owned) {
+            c.terminated();
+        }
+    }
+
+    // creatures handed off after their new owner stopped are still waiting in its inbox
+    public void terminateStranded() {
+        SeaCreature c;
+
+        while ((c = inbox.poll()) != null) {
+            c.terminated();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "slab " + index + " [" + lo + ", " + hi + ")";
+    }
+}
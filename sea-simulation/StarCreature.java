@@ -9,6 +9,9 @@ import java.util.concurrent.locks.ReentrantLock;
 public final class StarCreature extends SeaCreature {
     public StarCreature(int maxX, int maxY, int maxZ, int startX, int startY, int startZ, SeaSimulation s) {
         super(maxX, maxY, maxZ, startX, startY, startZ, s);
+
+        // set start position - assume no contention
+        this.attemptMove(0, 0, 0);
     }
 
     @Override
@@ -48,39 +51,50 @@ public final class StarCreature extends SeaCreature {
 
         // (1, 0, 1)
         if (successfulMove) {
-            this.acquireLock(newX + 1, newY, newZ + 1);
+            successfulMove = this.acquireLock(newX + 1, newY, newZ + 1);
         }
 
         // (0, 1, 1)
         if (successfulMove) {
-            this.acquireLock(newX, newY + 1, newZ + 1);
+            successfulMove = this.acquireLock(newX, newY + 1, newZ + 1);
         }
 
         // (1, 1, 1)
         if (successfulMove) {
-            this.acquireLock(newX + 1, newY + 1, newZ + 1);
+            successfulMove = this.acquireLock(newX + 1, newY + 1, newZ + 1);
         }
 
         // (2, 1, 1)
         if (successfulMove) {
-            this.acquireLock(newX + 2, newY + 1, newZ + 1);
+            successfulMove = this.acquireLock(newX + 2, newY + 1, newZ + 1);
         }
 
         // (1, 2, 1)
         if (successfulMove) {
-            this.acquireLock(newX + 1, newY + 2, newZ + 1);
+            successfulMove = this.acquireLock(newX + 1, newY + 2, newZ + 1);
         }
 
 
         // (1, 1, 2)
         if (successfulMove) {
-            this.acquireLock(newX + 1, newY + 1, newZ + 2);
+            successfulMove = this.acquireLock(newX + 1, newY + 1, newZ + 2);
         }
     
         // if able to acquire all locks, write the current reference into the grid
         // and release all previous locks, while clearing the references
         // (1, 1, 0), (1, 0, 1), (0, 1, 1), (1, 1, 1), (2, 1, 1), (1, 2, 1), (1, 1, 2)
         if (successfulMove) {
+            beginMove();
+
+            // reset old references
+            this.simulation.grid[x + 1][y + 1][z] = null;
+            this.simulation.grid[x + 1][y][z + 1] = null;
+            this.simulation.grid[x][y + 1][z + 1] = null;
+            this.simulation.grid[x + 1][y + 1][z + 1] = null;
+            this.simulation.grid[x + 2][y + 1][z + 1] = null;
+            this.simulation.grid[x + 1][y + 2][z + 1] = null;
+            this.simulation.grid[x + 1][y + 1][z + 2] = null;
+
             // set new references
             this.simulation.grid[newX + 1][newY + 1][newZ] = this;
             this.simulation.grid[newX + 1][newY][newZ + 1] = this;
@@ -89,21 +103,9 @@ public final class StarCreature extends SeaCreature {
             this.simulation.grid[newX + 2][newY + 1][newZ + 1] = this;
             this.simulation.grid[newX + 1][newY + 2][newZ + 1] = this;
             this.simulation.grid[newX + 1][newY + 1][newZ + 2] = this;
-            
-
-            // reset old references
-            this.simulation.grid[x + 1][y + 1][z] = this;
-            this.simulation.grid[x + 1][y][z + 1] = this;
-            this.simulation.grid[x][y + 1][z + 1] = this;
-            this.simulation.grid[x + 1][y + 1][z + 1] = this;
-            this.simulation.grid[x + 2][y + 1][z + 1] = this;
-            this.simulation.grid[x + 1][y + 2][z + 1] = this;
-            this.simulation.grid[x + 1][y + 1][z + 2] = this;
 
             // update internal position
-            this.x = newX;
-            this.y = newY;
-            this.z = newZ;
+            endMove(newX, newY, newZ);
         } 
 
         // release all locks
@@ -1,147 +1,1492 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class TrafficSimulation implements Runnable {
+    public enum Direction {
+        LEFT, RIGHT;
+    }
+
+    // how vehicles are executed
+    //  - THREADS: one platform thread per vehicle, blocking in roadLock.wait() while the road goes the other way
+    //  - VIRTUAL: one virtual thread per vehicle, running the same blocking code
+    //  - POOLED: vehicles are plain state driven by a bounded scheduled pool. a vehicle that cannot enter is parked in a queue
+    //    and handed to the pool when the road switches to its direction, so no thread ever waits for the road
+    public enum ExecutionMode {
+        THREADS, VIRTUAL, POOLED;
+    }
+
+    // how vehicles waiting for the road are blocked and woken
+    //  - MONITOR: every vehicle waits on roadLock, and a direction switch wakes them all with notifyAll, including the vehicles
+    //    of the direction that just lost the road, which only check roadDirection and wait again
+    //  - CONDITIONS: a ReentrantLock with one Condition per direction, so a switch only wakes the vehicles allowed to enter
+    public enum RoadControl {
+        MONITOR, CONDITIONS;
+    }
+
+    // decides how long a direction keeps the road while vehicles of the other direction are waiting for it
+    // the road is handed over in phases: a phase starts when the road switches to a direction, and while the other direction
+    // has vehicles waiting, the phase only admits the vehicles the policy allows. once it stops admitting, the road drains and
+    // switches. while nobody waits on the other side, vehicles always enter. only called with the lock of the road control held
+    public interface AdmissionPolicy {
+        // a phase of direction d starts, with waiting vehicles of d already queued for it
+        void startPhase(Direction d, int waiting, long now);
+
+        // whether the phase may admit one more vehicle although the other direction is waiting
+        boolean admitWhileContested(long now);
+
+        // a vehicle entered during the phase
+        void admitted();
+
+        // how many of the waiting vehicles to wake when a phase starts
+        int wakeBatch(int waiting);
+    }
+
+    // the original behaviour: a phase admits the vehicles that were waiting when it started, then only vehicles arriving while
+    // the other direction has nobody waiting. under heavy load in both directions the road alternates between small groups
+    public static class AlternatePolicy implements AdmissionPolicy {
+        private int quota;
+        private int admitted;
+
+        @Override
+        public void startPhase(Direction d, int waiting, long now) {
+            this.quota = waiting;
+            this.admitted = 0;
+        }
+
+        @Override
+        public boolean admitWhileContested(long now) {
+            return admitted < quota;
+        }
+
+        @Override
+        public void admitted() {
+            admitted++;
+        }
+
+        @Override
+        public int wakeBatch(int waiting) {
+            return waiting;
+        }
+
+        @Override
+        public String toString() {
+            return "alternate";
+        }
+    }
+
+    // platoons: a contested phase admits up to maxVehicles vehicles, for at most maxMillis ms from its start, so the other
+    // direction waits at most maxMillis plus the time the last vehicles of the platoon need to leave the road
+    public static class PlatoonPolicy implements AdmissionPolicy {
+        public final int maxVehicles;
+        public final long maxMillis;
+
+        private long phaseStart;
+        private int admitted;
+
+        public PlatoonPolicy(int maxVehicles, long maxMillis) {
+            this.maxVehicles = maxVehicles;
+            this.maxMillis = maxMillis;
+        }
+
+        @Override
+        public void startPhase(Direction d, int waiting, long now) {
+            this.phaseStart = now;
+            this.admitted = 0;
+        }
+
+        @Override
+        public boolean admitWhileContested(long now) {
+            return admitted < maxVehicles && now - phaseStart < TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        }
+
+        @Override
+        public void admitted() {
+            admitted++;
+        }
+
+        // waking more than a platoon would only send the rest back to waiting
+        @Override
+        public int wakeBatch(int waiting) {
+            return Math.min(waiting, maxVehicles);
+        }
+
+        @Override
+        public String toString() {
+            return "platoon(" + maxVehicles + "," + maxMillis + ")";
+        }
+    }
+
+    // lock free log-linear histogram of non negative values, in the spirit of HdrHistogram
+    //  - values below SUB_BUCKETS have a bucket each, above that every power of two is split into SUB_BUCKETS linear buckets,
+    //    so a recorded value is known to within 1 / SUB_BUCKETS (about 3%) of itself, whatever its magnitude
+    //  - recording is one atomic increment on the bucket plus the sum and the maximum, so any number of threads can record
+    //  - reading walks the buckets without stopping the writers, a concurrent record may or may not be counted
+    public static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts;
+        private final LongAdder sum;
+        private final AtomicLong max;
+
+        public LatencyHistogram() {
+            this.counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+            this.sum = new LongAdder();
+            this.max = new AtomicLong();
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+        }
+
+        // largest value that falls into the bucket
+        private static long highestValueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+
+            int shift = bucket / SUB_BUCKETS - 1;
+            long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+
+            return low + (1L << shift) - 1;
+        }
+
+        public void record(long value) {
+            value = Math.max(0, value);
+
+            counts.incrementAndGet(bucketOf(value));
+            sum.add(value);
+
+            // the max rarely changes, so most records only read it
+            long current = max.get();
+
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long count() {
+            long total = 0;
+
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+
+            return total;
+        }
+
+        public double mean() {
+            long total = count();
+            return total == 0 ? 0 : (double) sum.sum() / total;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        // value at the given percentile (0 - 100), to within the precision of the buckets
+        public long percentile(double p) {
+            long total = count();
+
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+            long seen = 0;
+
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max.get());
+                }
+            }
+
+            return max.get();
+        }
+
+        // p50 / p99 / max of a histogram of nanoseconds, in ms
+        public String summaryMillis() {
+            return String.format("%.1f/%.1f/%.1f", percentile(50) / 1e6, percentile(99) / 1e6, max() / 1e6);
+        }
+    }
+
+    // road network engine: a grid of intersections connected by roads, each road made of lanes that behave like the road of
+    // TrafficSimulation (one direction at a time, one vehicle per segment, an admission policy per lane)
+    //  - every lane has its own lock for admission, and segments are claimed with a CAS, so there is no global lock
+    //  - vehicles are routed across the grid one road at a time (first along x, then along y) to a random destination, and
+    //    get a new destination when they arrive, so the population stays constant
+    //  - the network advances in ticks: each tick a fork/join pool advances every road once, in parallel over ranges of roads
+    //  - a vehicle leaving a road is admitted onto (or parked at) the next road right away, and handed to the worker of that
+    //    road through the lane's inbox, the same way slabs of the sea simulation hand creatures over
+    public static class RoadNetwork implements Runnable {
+        // roads per fork/join leaf task
+        private static final int LEAF_SIZE = 64;
+
+        // one lane of a road
+        public class Lane {
+            private final AtomicReferenceArray<Trip> segments;
+            private final ReentrantLock lock;
+            private final AdmissionPolicy policy;
+
+            // guarded by lock
+            private Direction direction;
+            private int goingLeft;
+            private int goingRight;
+            private final ArrayDeque<Trip> parkedLeft;
+            private final ArrayDeque<Trip> parkedRight;
+
+            // vehicles admitted onto the lane, in the order they were admitted. only touched by the worker advancing the road
+            private final ArrayDeque<Trip> travelling;
+
+            // vehicles admitted by other workers, moved into travelling at the start of the next advance
+            private final ConcurrentLinkedQueue<Trip> inbox;
+
+            private Lane(AdmissionPolicy policy) {
+                this.segments = new AtomicReferenceArray<>(segmentsPerRoad);
+                this.lock = new ReentrantLock();
+                this.policy = policy;
+                this.direction = Direction.RIGHT;
+                this.goingLeft = 0;
+                this.goingRight = 0;
+                this.parkedLeft = new ArrayDeque<>();
+                this.parkedRight = new ArrayDeque<>();
+                this.travelling = new ArrayDeque<>();
+                this.inbox = new ConcurrentLinkedQueue<>();
+
+                policy.startPhase(direction, 0, System.nanoTime());
+            }
+
+            private ArrayDeque<Trip> parked(Direction d) {
+                return d == Direction.LEFT ? parkedLeft : parkedRight;
+            }
+
+            private int going(Direction d) {
+                return d == Direction.LEFT ? goingLeft : goingRight;
+            }
+
+            // the same rule as TrafficSimulation.mayEnter, with the parked vehicles as the waiting ones. lock held
+            private boolean mayEnter(Direction d) {
+                Direction opposite = opposite(d);
+
+                if (going(opposite) > 0) {
+                    return false;
+                }
+
+                if (parked(opposite).isEmpty()) {
+                    return true;
+                }
+
+                return direction == d && policy.admitWhileContested(System.nanoTime());
+            }
+
+            // lock held, the lane is set before the trip is published to the worker that drives it
+            private void admit(Trip t, Direction d) {
+                if (direction != d) {
+                    direction = d;
+                    policy.startPhase(d, parked(d).size(), System.nanoTime());
+                }
+
+                if (d == Direction.LEFT) {
+                    goingLeft++;
+                } else {
+                    goingRight++;
+                }
+
+                policy.admitted();
+                t.lane = this;
+                inbox.add(t);
+            }
+
+            // admits the trip if the lane lets it in now, without parking it
+            private boolean tryEnter(Trip t, Direction d) {
+                lock.lock();
+
+                try {
+                    if (!mayEnter(d)) {
+                        return false;
+                    }
+
+                    admit(t, d);
+                    return true;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            // admits the trip, or parks it until the lane switches to its direction
+            private void enterOrPark(Trip t, Direction d) {
+                lock.lock();
+
+                try {
+                    if (mayEnter(d)) {
+                        admit(t, d);
+                        return;
+                    }
+
+                    parked(d).add(t);
+                    parkedTrips.increment();
+
+                    // an idle lane has nobody left to hand it over
+                    if (goingLeft == 0 && goingRight == 0) {
+                        handOver(opposite(direction));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            // a trip of direction d left the lane
+            private void leave(Direction d) {
+                lock.lock();
+
+                try {
+                    if (d == Direction.LEFT) {
+                        goingLeft--;
+                    } else {
+                        goingRight--;
+                    }
+
+                    if (going(d) == 0) {
+                        handOver(opposite(d));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            // switches the lane to d if vehicles of d are parked, and admits those the policy lets in. lock held
+            private void handOver(Direction d) {
+                if (parked(d).isEmpty()) {
+                    d = opposite(d);
+
+                    if (parked(d).isEmpty()) {
+                        return;
+                    }
+                }
+
+                direction = d;
+                policy.startPhase(d, parked(d).size(), System.nanoTime());
+
+                while (!parked(d).isEmpty()) {
+                    Trip t = parked(d).poll();
+
+                    // the trip is no longer waiting once admitted, so ask as if it were an arrival
+                    if (!mayEnter(d)) {
+                        parked(d).addFirst(t);
+                        return;
+                    }
+
+                    admit(t, d);
+                    parkedTrips.decrement();
+                }
+            }
+
+            // advances every vehicle on the lane by one step, leaders first so that followers can move up in the same tick
+            private void advance() {
+                Trip arrived;
+
+                while ((arrived = inbox.poll()) != null) {
+                    travelling.add(arrived);
+                }
+
+                for (int i = travelling.size(); i > 0; i--) {
+                    Trip t = travelling.poll();
+
+                    if (t.step()) {
+                        travelling.add(t);
+                    }
+                }
+            }
+        }
+
+        public class Road {
+            // RIGHT travels from intersection from to intersection to, LEFT the other way
+            public final int from;
+            public final int to;
+            public final Lane lanes[];
+
+            private Road(int from, int to, int laneCount) {
+                this.from = from;
+                this.to = to;
+                this.lanes = new Lane[laneCount];
+
+                for (int i = 0; i < laneCount; i++) {
+                    lanes[i] = new Lane(policyFactory.get());
+                }
+            }
+
+            // admits the trip on the first lane that lets it in, or parks it on the lane with the fewest parked vehicles
+            private void enter(Trip t, Direction d) {
+                for (Lane lane : lanes) {
+                    if (lane.tryEnter(t, d)) {
+                        return;
+                    }
+                }
+
+                // the sizes are read without the locks, a stale choice only costs balance
+                Lane shortest = lanes[0];
+
+                for (Lane lane : lanes) {
+                    if (lane.parked(d).size() < shortest.parked(d).size()) {
+                        shortest = lane;
+                    }
+                }
+
+                shortest.enterOrPark(t, d);
+            }
+        }
+
+        // a vehicle travelling from intersection to intersection
+        public class Trip {
+            private int intersection;
+            private int destination;
+
+            // road the vehicle is on or waiting for, and where it is on it
+            private Road road;
+            private Lane lane;
+            private Direction direction;
+            private int segment;
+            private boolean onRoad;
+
+            private Trip(int intersection) {
+                this.intersection = intersection;
+                this.destination = randomIntersection(intersection);
+            }
+
+            // picks the next road towards the destination and enters it
+            private void route() {
+                if (intersection == destination) {
+                    trips.increment();
+                    destination = randomIntersection(intersection);
+                }
+
+                int x = intersection % width;
+                int y = intersection / width;
+                int goalX = destination % width;
+                int goalY = destination / width;
+
+                if (x < goalX) {
+                    road = roads[horizontal(x, y)];
+                    direction = Direction.RIGHT;
+                } else if (x > goalX) {
+                    road = roads[horizontal(x - 1, y)];
+                    direction = Direction.LEFT;
+                } else if (y < goalY) {
+                    road = roads[vertical(x, y)];
+                    direction = Direction.RIGHT;
+                } else {
+                    road = roads[vertical(x, y - 1)];
+                    direction = Direction.LEFT;
+                }
+
+                onRoad = false;
+                segment = direction == Direction.RIGHT ? 0 : segmentsPerRoad - 1;
+                road.enter(this, direction);
+            }
+
+            // one step on the lane. returns false once the vehicle has left the lane
+            private boolean step() {
+                if (!onRoad) {
+                    onRoad = lane.segments.compareAndSet(segment, null, this);
+                    return true;
+                }
+
+                boolean atEnd = direction == Direction.RIGHT ? segment == segmentsPerRoad - 1 : segment == 0;
+
+                if (atEnd) {
+                    lane.segments.set(segment, null);
+                    lane.leave(direction);
+                    hops.increment();
+
+                    intersection = direction == Direction.RIGHT ? road.to : road.from;
+                    route();
+
+                    return false;
+                }
+
+                // claim the next segment, then release the current one. fails while the vehicle in front is still there
+                int next = direction == Direction.RIGHT ? segment + 1 : segment - 1;
+
+                if (lane.segments.compareAndSet(next, null, this)) {
+                    lane.segments.set(segment, null);
+                    segment = next;
+                    moves.increment();
+                }
+
+                return true;
+            }
+        }
+
+        // splits the roads into ranges of at most LEAF_SIZE, advancing every range in parallel
+        private class Advance extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int from;
+            private final int to;
+
+            Advance(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > LEAF_SIZE) {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new Advance(from, middle), new Advance(middle, to));
+                    return;
+                }
+
+                for (int i = from; i < to; i++) {
+                    for (Lane lane : roads[i].lanes) {
+                        lane.advance();
+                    }
+                }
+            }
+        }
+
+        // grid of width x height intersections
+        public final int width;
+        public final int height;
+        public final int segmentsPerRoad;
+        public final Road roads[];
+
+        private final Supplier<AdmissionPolicy> policyFactory;
+        private final ForkJoinPool pool;
+
+        // ms per tick, 0 to advance as fast as possible
+        public final long tickMillis;
+        private volatile boolean running;
+
+        public long ticks;
+        public final LongAdder moves;
+        public final LongAdder hops;
+        public final LongAdder trips;
+        public final LongAdder parkedTrips;
+
+        public RoadNetwork(int width, int height, int laneCount, int segmentsPerRoad, int vehicles, long tickMillis, int workers,
+                Supplier<AdmissionPolicy> policyFactory) {
+            this.width = width;
+            this.height = height;
+            this.segmentsPerRoad = segmentsPerRoad;
+            this.policyFactory = policyFactory;
+            this.pool = new ForkJoinPool(workers);
+            this.tickMillis = tickMillis;
+            this.running = true;
+
+            this.ticks = 0;
+            this.moves = new LongAdder();
+            this.hops = new LongAdder();
+            this.trips = new LongAdder();
+            this.parkedTrips = new LongAdder();
+
+            // horizontal roads first, then vertical roads
+            this.roads = new Road[height * (width - 1) + (height - 1) * width];
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x + 1 < width; x++) {
+                    roads[horizontal(x, y)] = new Road(y * width + x, y * width + x + 1, laneCount);
+                }
+            }
+
+            for (int y = 0; y + 1 < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    roads[vertical(x, y)] = new Road(y * width + x, (y + 1) * width + x, laneCount);
+                }
+            }
+
+            for (int i = 0; i < vehicles; i++) {
+                new Trip(ThreadLocalRandom.current().nextInt(width * height)).route();
+            }
+        }
+
+        // road between x, y and x + 1, y
+        private int horizontal(int x, int y) {
+            return y * (width - 1) + x;
+        }
+
+        // road between x, y and x, y + 1
+        private int vertical(int x, int y) {
+            return height * (width - 1) + y * width + x;
+        }
+
+        private int randomIntersection(int other) {
+            int i;
+
+            do {
+                i = ThreadLocalRandom.current().nextInt(width * height);
+            } while (i == other);
+
+            return i;
+        }
+
+        public void stop() {
+            running = false;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long start = System.nanoTime();
+
+                pool.invoke(new Advance(0, roads.length));
+                ticks++;
+
+                long wait = TimeUnit.MILLISECONDS.toNanos(tickMillis) - (System.nanoTime() - start);
+
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+
+            pool.shutdown();
+        }
+    }
+
+    // discrete event engine: the road of the pooled mode on a simulated clock. instead of sleeping, every arrival, step along
+    // the road, exit and direction switch is an event in a calendar ordered by simulated time, and the engine jumps from one
+    // event to the next, so an hour of traffic takes as long as the cpu needs to process its events
+    //  - the model is the one of the pooled mode: the same arrival mix and delays, the same admission policies, a vehicle steps
+    //    every d ms and waits for the next step when the segment it wants is taken
+    //  - events at the same time are processed in the order they were scheduled, so a run is reproducible from its seed
+    //  - the engine is single threaded, so the road state is plain fields and arrays
+    public static class EventSimulation implements Runnable {
+        public enum EventType {
+            ARRIVAL, ADVANCE, EXIT, SWITCH;
+        }
+
+        private static class Event implements Comparable<Event> {
+            private final long time;
+            private final long sequence;
+            private final EventType type;
+            private final SimulatedVehicle vehicle;
+
+            private Event(long time, long sequence, EventType type, SimulatedVehicle vehicle) {
+                this.time = time;
+                this.sequence = sequence;
+                this.type = type;
+                this.vehicle = vehicle;
+            }
+
+            @Override
+            public int compareTo(Event other) {
+                int byTime = Long.compare(time, other.time);
+                return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+            }
+        }
+
+        private static class SimulatedVehicle {
+            private final Direction direction;
+            private int segment;
+            private boolean entered;
+
+            // simulated times of creation and of claiming the entry segment
+            private final long createdNanos;
+            private long enteredNanos;
+
+            private SimulatedVehicle(Direction direction, int segment, long createdNanos) {
+                this.direction = direction;
+                this.segment = segment;
+                this.entered = false;
+                this.createdNanos = createdNanos;
+            }
+        }
+
+        public final int roadSegments;
+        public final int timeToTraverseSegment;
+        public final int s;
+        public final AdmissionPolicy policy;
+        public final long durationNanos;
+
+        private final SplittableRandom random;
+        private final PriorityQueue<Event> calendar;
+        private long sequence;
+
+        // simulated time, in ns since the start of the simulation
+        public long now;
+
+        private final SimulatedVehicle segments[];
+        public Direction roadDirection;
+        private int goingLeft;
+        private int goingRight;
+        private final ArrayDeque<SimulatedVehicle> parkedLeft;
+        private final ArrayDeque<SimulatedVehicle> parkedRight;
+
+        // the same measures as the real time simulation, in simulated time
+        public long events;
+        public long spawned;
+        public long exited;
+        public long switches;
+        public long switchLatencyNanos;
+        private long switchNanos;
+        public long roadNanos;
+        public long waitNanos;
+        public long maxWaitNanos;
+
+        public EventSimulation(int n, int d, int s, Direction initialDirection, AdmissionPolicy policy, long durationNanos, long seed) {
+            this.roadSegments = n;
+            this.timeToTraverseSegment = d;
+            this.s = s;
+            this.policy = policy;
+            this.durationNanos = durationNanos;
+
+            this.random = new SplittableRandom(seed);
+            this.calendar = new PriorityQueue<>();
+            this.sequence = 0;
+            this.now = 0;
+
+            this.segments = new SimulatedVehicle[n];
+            this.roadDirection = initialDirection;
+            this.parkedLeft = new ArrayDeque<>();
+            this.parkedRight = new ArrayDeque<>();
+            this.switchNanos = -1;
+
+            policy.startPhase(initialDirection, 0, 0);
+        }
+
+        private void schedule(long time, EventType type, SimulatedVehicle v) {
+            calendar.add(new Event(time, sequence++, type, v));
+        }
+
+        private long millis(long ms) {
+            return TimeUnit.MILLISECONDS.toNanos(ms);
+        }
+
+        private ArrayDeque<SimulatedVehicle> parked(Direction d) {
+            return d == Direction.LEFT ? parkedLeft : parkedRight;
+        }
+
+        private int going(Direction d) {
+            return d == Direction.LEFT ? goingLeft : goingRight;
+        }
+
+        // processes the events up to the end of the simulated duration
+        @Override
+        public void run() {
+            schedule(0, EventType.ARRIVAL, null);
+
+            while (!calendar.isEmpty() && calendar.peek().time <= durationNanos) {
+                Event e = calendar.poll();
+                now = e.time;
+                events++;
+
+                switch (e.type) {
+                    case ARRIVAL -> arrive();
+                    case ADVANCE -> advance(e.vehicle);
+                    case EXIT -> exit(e.vehicle);
+                    case SWITCH -> handOver(e.vehicle.direction);
+                }
+            }
+
+            now = durationNanos;
+        }
+
+        // TrafficSimulation.run: 45% left, 45% right, 10% from a random segment in a random direction, then the next arrival
+        private void arrive() {
+            int randomNum = random.nextInt(0, 100);
+            SimulatedVehicle v;
+
+            if (randomNum < 45) {
+                v = new SimulatedVehicle(Direction.LEFT, roadSegments - 1, now);
+            } else if (randomNum < 90) {
+                v = new SimulatedVehicle(Direction.RIGHT, 0, now);
+            } else {
+                int startPoint = random.nextInt(0, roadSegments);
+                v = new SimulatedVehicle(random.nextInt(0, 2) == 1 ? Direction.LEFT : Direction.RIGHT, startPoint, now);
+            }
+
+            spawned++;
+
+            if (mayEnter(v.direction)) {
+                admit(v.direction);
+                schedule(now, EventType.ADVANCE, v);
+            } else {
+                parked(v.direction).add(v);
+            }
+
+            schedule(now + millis(Math.max(0, s + random.nextInt(-20, 21))), EventType.ARRIVAL, null);
+        }
+
+        // Vehicle.step: claim the entry segment, or move one segment forward, then step again d ms later
+        private void advance(SimulatedVehicle v) {
+            long next = now + millis(timeToTraverseSegment);
+
+            if (!v.entered) {
+                if (segments[v.segment] != null) {
+                    schedule(next, EventType.ADVANCE, v);
+                    return;
+                }
+
+                segments[v.segment] = v;
+                v.entered = true;
+                v.enteredNanos = now;
+                waitNanos += now - v.createdNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, now - v.createdNanos);
+            }
+
+            if (atEnd(v)) {
+                schedule(now, EventType.EXIT, v);
+                return;
+            }
+
+            int forward = v.direction == Direction.LEFT ? v.segment - 1 : v.segment + 1;
+
+            if (segments[forward] == null) {
+                segments[forward] = v;
+                segments[v.segment] = null;
+                v.segment = forward;
+            }
+
+            schedule(next, EventType.ADVANCE, v);
+        }
+
+        private boolean atEnd(SimulatedVehicle v) {
+            return v.direction == Direction.LEFT ? v.segment == 0 : v.segment == roadSegments - 1;
+        }
+
+        // the last vehicle of a direction schedules the hand over of the road to the parked vehicles of the other direction
+        private void exit(SimulatedVehicle v) {
+            segments[v.segment] = null;
+            roadNanos += now - v.enteredNanos;
+            exited++;
+
+            if (v.direction == Direction.LEFT) {
+                goingLeft--;
+            } else {
+                goingRight--;
+            }
+
+            Direction opposite = opposite(v.direction);
+
+            if (going(v.direction) == 0 && !parked(opposite).isEmpty()) {
+                schedule(now, EventType.SWITCH, parked(opposite).peek());
+            }
+        }
+
+        // switches the road to d and admits the parked vehicles the policy lets in, unless a vehicle arriving at the same
+        // instant entered in the meantime and the road is busy again
+        private void handOver(Direction d) {
+            if (going(opposite(d)) > 0 || parked(d).isEmpty()) {
+                return;
+            }
+
+            switchTo(d);
+
+            // the vehicle is no longer waiting once admitted, so ask the policy as if it were an arrival
+            while (!parked(d).isEmpty() && mayEnter(d)) {
+                admit(d);
+                schedule(now, EventType.ADVANCE, parked(d).poll());
+            }
+        }
+
+        // the rules of TrafficSimulation.mayEnter, with the parked vehicles as the waiting ones
+        private boolean mayEnter(Direction d) {
+            Direction opposite = opposite(d);
+
+            if (going(opposite) > 0) {
+                return false;
+            }
+
+            if (parked(opposite).isEmpty()) {
+                return true;
+            }
+
+            return roadDirection == d && policy.admitWhileContested(now);
+        }
+
+        private void switchTo(Direction d) {
+            roadDirection = d;
+            policy.startPhase(d, parked(d).size(), now);
+
+            if (!parked(d).isEmpty() && switchNanos < 0) {
+                switchNanos = now;
+            }
+        }
+
+        private void admit(Direction d) {
+            if (roadDirection != d) {
+                switchTo(d);
+            }
+
+            if (d == Direction.LEFT) {
+                goingLeft++;
+            } else {
+                goingRight++;
+            }
+
+            policy.admitted();
+
+            if (switchNanos >= 0 && roadDirection == d) {
+                switchLatencyNanos += now - switchNanos;
+                switches++;
+                switchNanos = -1;
+            }
+        }
+
+        public long backlog() {
+            return spawned - exited;
+        }
+    }
+
+    // prints a summary of the statistics of the simulation every period while it runs, on the console it was created with
+    public class StatisticsReporter implements Runnable {
+        private final long periodMillis;
+        private final PrintStream out;
+
+        public StatisticsReporter(long periodMillis) {
+            this.periodMillis = periodMillis;
+            this.out = System.out;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long lastLeft = 0;
+            long lastRight = 0;
+
+            while (simulationStatus) {
+                try {
+                    Thread.sleep(periodMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                long nowLeft = exitedLeft.sum();
+                long nowRight = exitedRight.sum();
+
+                // vehicles per second over the period, the histograms keep the distribution over all periods
+                long leftRate = (nowLeft - lastLeft) * 1000 / periodMillis;
+                long rightRate = (nowRight - lastRight) * 1000 / periodMillis;
+                leftThroughput.record(leftRate);
+                rightThroughput.record(rightRate);
+
+                lastLeft = nowLeft;
+                lastRight = nowRight;
+
+                out.printf("[%ds] left/s: %d (p50 %d), right/s: %d (p50 %d), waiting: %d/%d, wait ms p50/p99/max: %s, transit ms p50/p99/max: %s%n",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), leftRate, leftThroughput.percentile(50), rightRate,
+                    rightThroughput.percentile(50), waitingLeft.get(), waitingRight.get(),
+                    waitTimes.summaryMillis(), transitTimes.summaryMillis());
+            }
+        }
+    }
+
     // class that represents a vehicle in the simulation
     public class Vehicle implements Runnable {
-        public enum Direction {
-            LEFT, RIGHT;
+        // next unique id. vehicles are only created by the thread running the simulation, so the counter is never contended
+        private static final AtomicLong identifiers = new AtomicLong(1);
+
+        // non - static fields, each vehicle has a travel direction and a unique identifier
+        public final Direction travelDirection;
+        public final int identifier;
+
+        // current segment the vehicle occupies
+        private int segment;
+
+        // pooled mode: whether the vehicle is on the road yet, and the step it schedules on the pool (allocated once per vehicle)
+        private boolean entered;
+        private final Runnable stepTask;
+
+        // when the vehicle was created, and when it claimed its entry segment
+        private final long createdNanos;
+        private long enteredNanos;
+        
+        public Vehicle(Direction d, int segment) {
+            this.identifier = getUniqueIdentifier();
+            this.travelDirection = d;
+
+            this.segment = segment;
+            this.entered = false;
+            this.stepTask = this::step;
+            this.createdNanos = System.nanoTime();
+
+            // print creation message
+            if (verbose) {
+                System.out.println("car: " + identifier + "," + segment + ", " + travelDirection);
+            }
+        }
+
+        // thread safe generator for unique ids. throws ArithmeticException once the int ids are exhausted rather than wrapping
+        private static int getUniqueIdentifier() {
+            return Math.toIntExact(identifiers.getAndIncrement());
+        }
+
+        // the vehicle is allowed onto the road: beginLeft / beginRight returned, or the pooled mode admitted it
+        private void admitted() {
+            waitTimes.record(System.nanoTime() - createdNanos);
+        }
+
+        // claims the segment the vehicle starts on. fails while another vehicle of the same direction is still on it
+        private boolean claimEntry() {
+            if (!segments.compareAndSet(segment, null, this)) {
+                return false;
+            }
+
+            enteredNanos = System.nanoTime();
+            maxWaitNanos.accumulateAndGet(enteredNanos - createdNanos, Math::max);
+            return true;
+        }
+
+        // moves one segment forward: claim the next segment, then release the current one. the claim fails only while the vehicle
+        // in front is still on the next segment, so a vehicle can never overtake, and the leading vehicle always moves
+        private boolean advance() {
+            int next = this.travelDirection == Direction.LEFT ? segment - 1 : segment + 1;
+
+            if (!segments.compareAndSet(next, null, this)) {
+                return false;
+            }
+
+            // only the owner of a segment ever releases it
+            segments.set(segment, null);
+            this.segment = next;
+
+            return true;
+        }
+
+        private boolean atEnd() {
+            return this.travelDirection == Direction.LEFT ? segment == 0 : segment == roadSegments - 1;
+        }
+
+        // frees the last segment and leaves the road
+        private void exit() {
+            long transit = System.nanoTime() - enteredNanos;
+
+            segments.set(segment, null);
+            roadNanos.add(transit);
+            transitTimes.record(transit);
+
+            if (verbose) {
+                System.out.println("exit: " + identifier);
+            }
+
+            if (this.travelDirection == Direction.LEFT) {
+                endLeft();
+                exitedLeft.increment();
+            } else {
+                endRight();
+                exitedRight.increment();
+            }
+
+            exited.increment();
+        }
+
+        @Override
+        public void run() {
+            // depending on the direction, we call begin. This instructs the car to either wait or to enter the road.
+            // upon entry, we move along the board, claiming the segment in front before releasing our own to ensure no overtaking
+            // a vehicle that finds the segment in front taken waits for the next step
+            // upon exit, we call the end function which changes the board accordingly
+            boolean admitted = this.travelDirection == Direction.LEFT ? beginLeft() : beginRight();
+
+            if (!admitted) {
+                return;
+            }
+
+            admitted();
+
+            while (!claimEntry()) {
+                pause();
+            }
+
+            if (verbose) {
+                System.out.println("enter: " + identifier + "," + segment);
+            }
+
+            while (!atEnd()) {
+                if (advance() && this.travelDirection == Direction.RIGHT && verbose) {
+                    System.out.println("traverse: " + identifier + "," + segment);
+                }
+
+                pause();
+            }
+
+            exit();
+        }
+
+        private void pause() {
+            try {
+                Thread.sleep(timeToTraverseSegment);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // pooled mode: one iteration of the loop in run(), then the next step is scheduled d ms later instead of sleeping
+        // only ever called once the vehicle has been admitted onto the road
+        private void step() {
+            if (!entered) {
+                if (!claimEntry()) {
+                    schedule(stepTask, timeToTraverseSegment);
+                    return;
+                }
+
+                entered = true;
+
+                if (verbose) {
+                    System.out.println("enter: " + identifier + "," + segment);
+                }
+            }
+
+            if (atEnd()) {
+                exit();
+                return;
+            }
+
+            if (advance() && this.travelDirection == Direction.RIGHT && verbose) {
+                System.out.println("traverse: " + identifier + "," + segment);
+            }
+
+            schedule(stepTask, timeToTraverseSegment);
+        }
+    }
+
+    // fields belonging to the simulation
+    public final int roadSegments;
+    public final int timeToTraverseSegment;
+    public final int s;
+    public Direction roadDirection;
+
+    private volatile boolean simulationStatus;
+
+    public final ExecutionMode mode;
+
+    // pooled mode: the pool driving every vehicle, and the vehicles waiting for the road to switch to their direction
+    private ScheduledExecutorService vehiclePool;
+    private final ArrayDeque<Vehicle> parkedLeft;
+    private final ArrayDeque<Vehicle> parkedRight;
+
+    // vehicles created and vehicles that left the road, in total and per direction
+    public final LongAdder spawned;
+    public final LongAdder exited;
+    public final LongAdder exitedLeft;
+    public final LongAdder exitedRight;
+
+    // whether vehicles print their car / enter / traverse / exit lines. set before the simulation starts
+    public boolean verbose;
+
+    // time from creation to being allowed onto the road, time from claiming the entry segment to exiting, and the exits per
+    // second of each direction over every period of the StatisticsReporter
+    public final LatencyHistogram waitTimes;
+    public final LatencyHistogram transitTimes;
+    public final LatencyHistogram leftThroughput;
+    public final LatencyHistogram rightThroughput;
+
+    // vehicle on each segment of the road. a vehicle claims a segment with a CAS and is the only one to release it
+    private final AtomicReferenceArray<Vehicle> segments;
+
+    // keeps track of amount of cars queued at any point
+    // AtomicIntegers are not strictly necessary
+    private AtomicInteger goingLeft;
+    private AtomicInteger goingRight;
+    private AtomicInteger waitingLeft;
+    private AtomicInteger waitingRight;
+
+    public final RoadControl control;
+    public final AdmissionPolicy policy;
+
+    // MONITOR control
+    private Object roadLock;
+
+    // CONDITIONS control
+    private final ReentrantLock roadMutex;
+    private final Condition leftTurn;
+    private final Condition rightTurn;
+
+    // wakeups of waiting vehicles, and wakeups that found the road still going the other way
+    public final LongAdder wakeups;
+    public final LongAdder futileWakeups;
+
+    // direction switches with vehicles waiting, and the total time from each such switch to the first vehicle entering
+    // switchNanos is the time of the pending switch, 0 when none. only touched while holding the lock of the road control
+    public final LongAdder switches;
+    public final LongAdder switchLatencyNanos;
+    private long switchNanos;
+
+    // total time vehicles spent holding a segment, from claiming their entry segment to exiting. divided by the run time and the
+    // number of segments it gives the mean occupancy of the road
+    public final LongAdder roadNanos;
+
+    // longest time a vehicle waited between its creation and claiming its entry segment
+    public final AtomicLong maxWaitNanos;
+
+    public TrafficSimulation(int n, int d, int s, Direction initialDirection) {
+        this(n, d, s, initialDirection, ExecutionMode.THREADS, 0, RoadControl.CONDITIONS, new AlternatePolicy());
+    }
+
+    // workers is the size of the vehicle pool, only used in pooled mode
+    public TrafficSimulation(int n, int d, int s, Direction initialDirection, ExecutionMode mode, int workers, RoadControl control,
+            AdmissionPolicy policy) {
+        this.roadSegments = n;
+        this.timeToTraverseSegment = d;
+        this.s = s;
+        this.simulationStatus = true;
+
+        this.segments = new AtomicReferenceArray<>(n);
+
+        this.roadDirection = initialDirection;
+        this.roadLock = new Object();
+
+        this.control = control;
+        this.roadMutex = new ReentrantLock();
+        this.leftTurn = roadMutex.newCondition();
+        this.rightTurn = roadMutex.newCondition();
+
+        this.wakeups = new LongAdder();
+        this.futileWakeups = new LongAdder();
+        this.switches = new LongAdder();
+        this.switchLatencyNanos = new LongAdder();
+        this.switchNanos = 0;
+        this.roadNanos = new LongAdder();
+        this.maxWaitNanos = new AtomicLong();
+
+        this.policy = policy;
+        this.policy.startPhase(initialDirection, 0, System.nanoTime());
+
+        goingLeft = new AtomicInteger(0);
+        goingRight = new AtomicInteger(0);
+        waitingLeft = new AtomicInteger(0);
+        waitingRight = new AtomicInteger(0);
+
+        this.mode = mode;
+        this.parkedLeft = new ArrayDeque<>();
+        this.parkedRight = new ArrayDeque<>();
+        this.spawned = new LongAdder();
+        this.exited = new LongAdder();
+        this.exitedLeft = new LongAdder();
+        this.exitedRight = new LongAdder();
+
+        this.verbose = true;
+        this.waitTimes = new LatencyHistogram();
+        this.transitTimes = new LatencyHistogram();
+        this.leftThroughput = new LatencyHistogram();
+        this.rightThroughput = new LatencyHistogram();
+
+        if (mode == ExecutionMode.POOLED) {
+            this.vehiclePool = Executors.newScheduledThreadPool(workers);
+        }
+    }
+
+
+    // each vehicle moving left will call this before entering the road, and endLeft after leaving it
+    // it either tells the vehicle to wait for vehicles moving in the opposite direction to end or that the path is clear to proceed
+    // depending on the direction of the road. returns false if the simulation stopped while the vehicle was waiting
+    public boolean beginLeft() {
+        return control == RoadControl.MONITOR ? beginLeftMonitor() : beginWithConditions(Direction.LEFT);
+    }
+
+    public void endLeft() {
+        if (control == RoadControl.MONITOR) {
+            endLeftMonitor();
+        } else {
+            endWithConditions(Direction.LEFT);
+        }
+    }
+
+    public boolean beginRight() {
+        return control == RoadControl.MONITOR ? beginRightMonitor() : beginWithConditions(Direction.RIGHT);
+    }
+
+    public void endRight() {
+        if (control == RoadControl.MONITOR) {
+            endRightMonitor();
+        } else {
+            endWithConditions(Direction.RIGHT);
+        }
+    }
+
+    private static Direction opposite(Direction d) {
+        return d == Direction.LEFT ? Direction.RIGHT : Direction.LEFT;
+    }
+
+    private AtomicInteger going(Direction d) {
+        return d == Direction.LEFT ? goingLeft : goingRight;
+    }
+
+    private AtomicInteger waiting(Direction d) {
+        return d == Direction.LEFT ? waitingLeft : waitingRight;
+    }
+
+    private ArrayDeque<Vehicle> parked(Direction d) {
+        return d == Direction.LEFT ? parkedLeft : parkedRight;
+    }
+
+    private Condition turn(Direction d) {
+        return d == Direction.LEFT ? leftTurn : rightTurn;
+    }
+
+    // the following are only called while holding the lock of the road control
+
+    // starts a phase of d
+    private void switchTo(Direction d) {
+        long now = System.nanoTime();
+
+        this.roadDirection = d;
+        policy.startPhase(d, waiting(d).get(), now);
+
+        if (waiting(d).get() > 0 && switchNanos == 0) {
+            switchNanos = now;
         }
+    }
 
-        // keeps track of the last int used as id. Increment to get new id
-        private static int lastUniqueId = 0;
-        private static Object idLock = new Object();
+    // whether a vehicle of d may enter now, according to the admission policy
+    private boolean mayEnter(Direction d) {
+        Direction opposite = opposite(d);
 
-        // non - static fields, each vehicle has a travel direction and a unique identifier
-        public final Direction travelDirection;
-        public final int identifier;
+        if (going(opposite).get() > 0) {
+            return false;
+        }
 
-        // current segment the vehicle occupies
-        private int segment;
-        
-        public Vehicle(Direction d, int segment) {
-            this.identifier = getUniqueIdentifier();
-            this.travelDirection = d;
+        if (waiting(opposite).get() == 0) {
+            return true;
+        }
 
-            this.segment = segment;
+        return roadDirection == d && policy.admitWhileContested(System.nanoTime());
+    }
 
-            // print creation message
-            System.out.println("car: " + identifier + "," + segment + ", " + travelDirection);
+    // puts a vehicle of d on the road. the road switches to d if it was idle and going the other way
+    private void admit(Direction d) {
+        if (roadDirection != d) {
+            switchTo(d);
         }
 
-        // thread safe generator for unique ids
-        // ensures no data races for the lastUniqueId field using a mutex
-        private static int getUniqueIdentifier() {
-            synchronized(idLock) {
-                lastUniqueId++;
-                return lastUniqueId;
-            }
+        going(d).incrementAndGet();
+        policy.admitted();
+        recordEntry(d);
+    }
+
+    private void recordEntry(Direction d) {
+        if (switchNanos != 0 && roadDirection == d) {
+            switchLatencyNanos.add(System.nanoTime() - switchNanos);
+            switches.increment();
+            switchNanos = 0;
         }
+    }
 
-        @Override
-        public void run() {
-            // depending on the direction, we call begin. This instructs the car to either wait or to enter the road.
-            // upon entry, we move along the board, acquiring segments in front and the currrent segment's locks to ensure no overtaking
-            // upon exit, we call the end function which changes the board accordingly
-            if (this.travelDirection == Direction.LEFT) {
-                beginLeft();
-                System.out.println("enter: " + identifier + "," + segment);
-                while (segment > 0) {
+    private void countWakeup(boolean futile) {
+        wakeups.increment();
 
-                    synchronized(locks[segment]) {
-                        synchronized(locks[segment - 1]) {
-                            segments[segment] = null;
-                            segments[segment - 1] = this; 
-                        }
-                    }
-                        
-                    this.segment -= 1;
-    
-                    try {
-                        Thread.sleep(timeToTraverseSegment);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
+        if (futile && simulationStatus) {
+            futileWakeups.increment();
+        }
+    }
+
+    // CONDITIONS control: each direction waits on its own condition, and the admission policy decides who enters
+    private boolean beginWithConditions(Direction d) {
+        roadMutex.lock();
+
+        try {
+            if (!mayEnter(d)) {
+                waiting(d).incrementAndGet();
+
+                // nobody on the road will ever call end for the waiting vehicles, so hand the road over now
+                if (isIdle()) {
+                    handOver(opposite(roadDirection));
                 }
 
-                System.out.println("exit: " + identifier);
-                endLeft();
-            } else {
-                beginRight();
-                System.out.println("enter: " + identifier + "," + segment);
-                while (segment < roadSegments - 1) {
-                    synchronized(locks[segment]) {
-                        synchronized(locks[segment + 1]) {
-                            segments[segment] = null;
-                            segments[segment + 1] = this; 
-                        }
-                    }
-                    
-                    this.segment += 1;
+                boolean allowed = mayEnter(d);
 
-                    System.out.println("traverse: " + identifier + "," + segment);
-    
+                while (!allowed && simulationStatus) {
                     try {
-                        Thread.sleep(timeToTraverseSegment);
+                        turn(d).await();
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
+
+                    allowed = mayEnter(d);
+                    countWakeup(!allowed);
                 }
 
-                System.out.println("exit: " + identifier);
-                endRight();
+                waiting(d).decrementAndGet();
+
+                // woken by stop() rather than by the road switching to us: do not enter
+                if (!allowed) {
+                    return false;
+                }
             }
+
+            admit(d);
+            return true;
+        } finally {
+            roadMutex.unlock();
         }
     }
 
-    // fields belonging to the simulation
-    public final int roadSegments;
-    public final int timeToTraverseSegment;
-    public final int s;
-    public Direction roadDirection;
-
-    private boolean simulationStatus;
+    // the last vehicle of a direction hands the road over to the waiting vehicles, waking only them
+    private void endWithConditions(Direction d) {
+        roadMutex.lock();
 
-    private Vehicle segments[];
-    private Object locks[];
+        try {
+            if (going(d).decrementAndGet() == 0) {
+                handOver(opposite(d));
+            }
+        } finally {
+            roadMutex.unlock();
+        }
+    }
 
-    // keeps track of amount of cars queued at any point
-    // AtomicIntegers are not strictly necessary
-    private AtomicInteger goingLeft;
-    private AtomicInteger goingRight;
-    private AtomicInteger waitingLeft;
-    private AtomicInteger waitingRight;
+    private boolean isIdle() {
+        return goingLeft.get() == 0 && goingRight.get() == 0;
+    }
 
-    private Object roadLock;
+    // starts a phase for the waiting vehicles of d, or for those of the other direction when d has none: a phase that ended
+    // while the other direction was empty can leave vehicles of its own direction waiting, and they need a new phase too
+    // wakes at most the batch of the admission policy, and admits the parked vehicles it lets in
+    private void handOver(Direction d) {
+        if (waiting(d).get() == 0) {
+            d = opposite(d);
 
-    public TrafficSimulation(int n, int d, int s, Direction initialDirection) {
-        this.roadSegments = n;
-        this.timeToTraverseSegment = d;
-        this.s = s;
-        this.simulationStatus = true;
+            if (waiting(d).get() == 0) {
+                return;
+            }
+        }
 
-        this.segments = new Vehicle[n];
-        this.locks = new Object[n];
+        switchTo(d);
 
-        for (int i = 0; i < n; i++) {
-            this.locks[i] = new Object();
+        // the conditions belong to roadMutex, under the monitor only parked vehicles are handed over
+        if (control == RoadControl.CONDITIONS) {
+            for (int i = policy.wakeBatch(waiting(d).get()); i > 0; i--) {
+                turn(d).signal();
+            }
         }
 
-        this.roadDirection = initialDirection;
-        this.roadLock = new Object();
-
-        goingLeft = new AtomicInteger(0);
-        goingRight = new AtomicInteger(0);
-        waitingLeft = new AtomicInteger(0);
-        waitingRight = new AtomicInteger(0);
+        admitParked(d);
     }
 
-
-    // each vehicle moving left will call this
+    // MONITOR control, the original protocol: the admission policy is not consulted. each vehicle moving left will call this
     // it either tells the vehicle to wait for vehicles moving in the opposite direction to end or that the path is clear to proceed
-    // depending on the direction of the road.
+    // depending on the direction of the road. returns false if the simulation stopped while the vehicle was waiting
 
-    public void beginLeft() {
+    private boolean beginLeftMonitor() {
         synchronized(roadLock) {
             //System.out.println("begin left #1. (waiting right, going right): (" + waitingRight.get() + "," + goingRight.get() + ") " + this.roadDirection);
 
@@ -155,34 +1500,45 @@ public class TrafficSimulation implements Runnable {
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
-                } while (this.roadDirection != Direction.LEFT);
+
+                    countWakeup(this.roadDirection != Direction.LEFT);
+                } while (this.roadDirection != Direction.LEFT && simulationStatus);
 
                 waitingLeft.decrementAndGet();
+
+                // woken by stop() rather than by the road switching to us: do not enter
+                if (this.roadDirection != Direction.LEFT) {
+                    return false;
+                }
                 
             }
 
             //System.out.println("begin left #2. (waiting right, going right): (" + waitingRight.get() + "," + goingRight.get() + ") " + this.roadDirection);
 
             goingLeft.incrementAndGet();
+            recordEntry(Direction.LEFT);
+            return true;
         }
     }
 
     // each vehicle done moving will call this.
     // will switch directions to ensure fairness and notify all waiting vehicles to enter.
 
-    public void endLeft() {
+    private void endLeftMonitor() {
         synchronized (roadLock) {
             goingLeft.decrementAndGet();
 
             if (goingLeft.get() == 0) {
-                this.roadDirection = Direction.RIGHT;
+                switchTo(Direction.RIGHT);
                 roadLock.notifyAll();
+
+                admitParked(Direction.RIGHT);
             }
         }
     }
 
     // same as the beginLeft, except for the opposite direction
-    public void beginRight() {
+    private boolean beginRightMonitor() {
         synchronized(roadLock) {
             //System.out.println("begin right #1. (waiting left, going left): (" + waitingLeft.get() + "," + waitingLeft.get() + ") " + this.roadDirection);
 
@@ -196,29 +1552,150 @@ public class TrafficSimulation implements Runnable {
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
-                } while (this.roadDirection != Direction.RIGHT);
+
+                    countWakeup(this.roadDirection != Direction.RIGHT);
+                } while (this.roadDirection != Direction.RIGHT && simulationStatus);
 
                 waitingRight.decrementAndGet();
+
+                // woken by stop() rather than by the road switching to us: do not enter
+                if (this.roadDirection != Direction.RIGHT) {
+                    return false;
+                }
             }
 
             //System.out.println("begin right #2. (waiting left, going left): (" + waitingLeft.get() + "," + waitingLeft.get() + ") " + this.roadDirection);
 
             goingRight.incrementAndGet();
+            recordEntry(Direction.RIGHT);
+            return true;
         }
     }
 
     // same as endLeft, but for Right.
-    public void endRight() {
+    private void endRightMonitor() {
         synchronized (roadLock) {
             goingRight.decrementAndGet();
 
-            if (goingLeft.get() == 0) {
-                this.roadDirection = Direction.LEFT;
+            if (goingRight.get() == 0) {
+                switchTo(Direction.LEFT);
                 roadLock.notifyAll();
+
+                admitParked(Direction.LEFT);
+            }
+        }
+    }
+
+    // pooled mode: the non blocking beginLeft / beginRight. the vehicle is either admitted and starts moving on the pool, or it
+    // is parked until the road switches to its direction, exactly where a thread would wait
+    private void enter(Vehicle v) {
+        boolean admitted;
+
+        if (control == RoadControl.MONITOR) {
+            synchronized(roadLock) {
+                admitted = admitOrPark(v);
+            }
+        } else {
+            roadMutex.lock();
+
+            try {
+                admitted = admitOrPark(v);
+            } finally {
+                roadMutex.unlock();
+            }
+        }
+
+        if (admitted) {
+            v.admitted();
+            schedule(v.stepTask, 0);
+        }
+    }
+
+    // called with the lock of the road control held
+    private boolean admitOrPark(Vehicle v) {
+        Direction d = v.travelDirection;
+
+        if (mayEnter(d)) {
+            admit(d);
+            return true;
+        }
+
+        waiting(d).incrementAndGet();
+        parked(d).add(v);
+
+        // as in beginWithConditions, an idle road has nobody left to hand it over. this may admit v itself
+        if (isIdle()) {
+            handOver(opposite(roadDirection));
+        }
+
+        return false;
+    }
+
+    // pooled mode: called with the lock of the road control held when the road switches direction. admits the parked vehicles of
+    // the new direction that the admission policy lets in, the others stay parked for the next phase
+    private void admitParked(Direction d) {
+        while (!parked(d).isEmpty()) {
+            // the vehicle is no longer waiting once admitted, so ask the policy as if it were an arrival
+            waiting(d).decrementAndGet();
+
+            if (!mayEnter(d)) {
+                waiting(d).incrementAndGet();
+                return;
+            }
+
+            admit(d);
+
+            Vehicle v = parked(d).poll();
+            v.admitted();
+            schedule(v.stepTask, 0);
+        }
+    }
+
+    // pooled mode: runs the task on the vehicle pool after delay ms. tasks are dropped once stop() has shut the pool down
+    private void schedule(Runnable task, long delay) {
+        try {
+            vehiclePool.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (simulationStatus) {
+                throw e;
             }
         }
     }
 
+    // starts a new vehicle in the execution mode of the simulation
+    private void spawn(Direction d, int startSegment) {
+        Vehicle v = new Vehicle(d, startSegment);
+        spawned.increment();
+
+        switch (mode) {
+            case THREADS -> new Thread(v).start();
+            case VIRTUAL -> Thread.ofVirtual().start(v);
+            case POOLED -> enter(v);
+        }
+    }
+
+    // stops creating vehicles. vehicles on the road finish their trip, waiting threads give up and the vehicle pool is stopped
+    public void stop() {
+        simulationStatus = false;
+
+        synchronized(roadLock) {
+            roadLock.notifyAll();
+        }
+
+        roadMutex.lock();
+
+        try {
+            leftTurn.signalAll();
+            rightTurn.signalAll();
+        } finally {
+            roadMutex.unlock();
+        }
+
+        if (vehiclePool != null) {
+            vehiclePool.shutdownNow();
+        }
+    }
+
     @Override
     public void run() {
         while (simulationStatus) {
@@ -232,10 +1709,10 @@ public class TrafficSimulation implements Runnable {
 
             if (randomNum < 45) {
                 // going left means we start at the limit and move towards smaller numbers
-                new Thread(new Vehicle(Direction.LEFT, roadSegments - 1)).start();
+                spawn(Direction.LEFT, roadSegments - 1);
             } else if (randomNum < 90) {
                 // going right means we start at -1 and move towards larger numbers
-                new Thread(new Vehicle(Direction.RIGHT, 0)).start();
+                spawn(Direction.RIGHT, 0);
             } else {
                 // pick random starting point
                 int startPoint = ThreadLocalRandom.current().nextInt(0, roadSegments);
@@ -244,14 +1721,15 @@ public class TrafficSimulation implements Runnable {
                 int direction = ThreadLocalRandom.current().nextInt(0,  2);
 
                 if (direction == 1) {
-                    new Thread(new Vehicle(Direction.LEFT, startPoint)).start();
+                    spawn(Direction.LEFT, startPoint);
                 } else {
-                    new Thread(new Vehicle(Direction.RIGHT, startPoint)).start();
+                    spawn(Direction.RIGHT, startPoint);
                 }
             }
 
             // generate +- 20 for the delay between adding vehicles
-            int delay = s + ThreadLocalRandom.current().nextInt(-20, 21);
+            // the benchmark goes below s = 20, where the delay could become negative
+            int delay = Math.max(0, s + ThreadLocalRandom.current().nextInt(-20, 21));
             
             try {
                 Thread.sleep(delay);
@@ -261,12 +1739,295 @@ public class TrafficSimulation implements Runnable {
         } 
     }
 
-    // program entry point
+    // runs the simulation for the given time with the console discarded, and prints one line of the benchmark table
+    // the arrival rate is sustainable if over the second half of the run vehicles leave the road about as fast as they arrive,
+    // i.e. the backlog of waiting vehicles (and, in the blocking modes, of waiting threads) is not growing
+    private static void benchmarkOnce(PrintStream console, ExecutionMode mode, RoadControl control, AdmissionPolicy policy, int workers,
+            int n, int d, int s, int seconds) {
+        // idle carrier and pool threads of the previous runs are still alive, so only threads added by this run are reported
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        threadBean.resetPeakThreadCount();
+        int baseline = threadBean.getThreadCount();
+
+        TrafficSimulation simulation = new TrafficSimulation(n, d, s, Direction.LEFT, mode, workers, control, policy);
+        simulation.verbose = false;
+        String failure = null;
+
+        long spawnedHalf = 0;
+        long exitedHalf = 0;
+
+        try {
+            Thread t = new Thread(simulation);
+            t.start();
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 2);
+
+            spawnedHalf = simulation.spawned.sum();
+            exitedHalf = simulation.exited.sum();
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 2);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            failure = e.getMessage();
+        } finally {
+            simulation.stop();
+        }
+
+        long arrivals = simulation.spawned.sum() - spawnedHalf;
+        long departures = simulation.exited.sum() - exitedHalf;
+        long backlog = simulation.spawned.sum() - simulation.exited.sum();
+        boolean sustainable = failure == null && departures >= 0.9 * arrivals;
+        int peakThreads = threadBean.getPeakThreadCount() - baseline;
+        long switches = simulation.switches.sum();
+        double switchMillis = switches == 0 ? 0 : simulation.switchLatencyNanos.sum() / 1e6 / switches;
+
+        // mean share of the segments holding a vehicle
+        double utilization = 100.0 * simulation.roadNanos.sum() / TimeUnit.SECONDS.toNanos(seconds) / n;
+
+        // let the vehicles still on the road finish before the next run
+        try {
+            Thread.sleep((long) n * d + 1000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        console.printf("%-9s %-11s %-17s %5d %12.1f %12.1f %9d %12d %12s %10.1f %10.1f %10.2f %8.1f%% %10d%n", mode.name().toLowerCase(),
+            control.name().toLowerCase(), control == RoadControl.MONITOR && mode != ExecutionMode.POOLED ? "original" : policy, s,
+            arrivals * 2.0 / seconds, departures * 2.0 / seconds, backlog, peakThreads, sustainable ? "yes" : "no",
+            simulation.wakeups.sum() / (double) seconds, simulation.futileWakeups.sum() / (double) seconds, switchMillis, utilization,
+            simulation.maxWaitNanos.get() / 1_000_000);
+
+        if (failure != null) {
+            console.println("    vehicle creation failed: " + failure);
+        }
+    }
+
+    // benchmark entry point: java TrafficSimulation.java bench seconds n d workers s1 s2 ... [platoon=K,T]
+    // compares thread per vehicle, virtual threads and the pooled mode for every delay between arrivals s1, s2 ..., under the
+    // original monitor protocol and under the condition based control with the alternating and the platoon admission policies
+    private static void benchmark(String args[]) {
+        int seconds = 0;
+        int n = 0;
+        int d = 0;
+        int workers = 0;
+        int delays[] = null;
+        int platoonVehicles = 8;
+        long platoonMillis = 200;
+
+        try {
+            seconds = Integer.parseInt(args[1]);
+            n = Integer.parseInt(args[2]);
+            d = Integer.parseInt(args[3]);
+            workers = Integer.parseInt(args[4]);
+
+            int count = 0;
+            delays = new int[args.length - 5];
+
+            for (int i = 5; i < args.length; i++) {
+                if (args[i].startsWith("platoon=")) {
+                    String limits[] = args[i].substring(8).split(",");
+                    platoonVehicles = Integer.parseInt(limits[0]);
+                    platoonMillis = Long.parseLong(limits[1]);
+                } else {
+                    delays[count++] = Integer.parseInt(args[i]);
+                }
+            }
+
+            delays = Arrays.copyOf(delays, count);
+
+            if (delays.length == 0) {
+                throw new IllegalArgumentException();
+            }
+        } catch (Exception e) {
+            System.out.println("Expected integer inputs bench seconds n d workers s1 s2 ..., optionally followed by platoon=K,T");
+            System.exit(-1);
+        }
+
+        // the vehicles' console output is discarded for the whole benchmark, stragglers of a run can still print during the next
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        console.printf("%-9s %-11s %-17s %5s %12s %12s %9s %12s %12s %10s %10s %10s %9s %10s%n", "mode", "control", "policy", "s",
+            "arrivals/s", "exits/s", "backlog", "addedThreads", "sustainable", "wakeups/s", "futile/s", "switchMs", "occupancy", "maxWaitMs");
+
+        for (int s : delays) {
+            for (ExecutionMode mode : ExecutionMode.values()) {
+                // pooled vehicles never block, so the road control only changes the lock they are admitted under
+                if (mode != ExecutionMode.POOLED) {
+                    benchmarkOnce(console, mode, RoadControl.MONITOR, new AlternatePolicy(), workers, n, d, s, seconds);
+                }
+
+                benchmarkOnce(console, mode, RoadControl.CONDITIONS, new AlternatePolicy(), workers, n, d, s, seconds);
+                benchmarkOnce(console, mode, RoadControl.CONDITIONS, new PlatoonPolicy(platoonVehicles, platoonMillis), workers, n, d, s, seconds);
+            }
+        }
+
+        System.exit(0);
+    }
+
+    // network entry point: java TrafficSimulation.java network width height lanes n d vehicles seconds [workers] [platoon=K,T]
+    // runs a width x height grid of roads of n segments with the given lanes, d ms per tick (0 for as fast as possible)
+    private static void network(String args[]) {
+        RoadNetwork network = null;
+        int seconds = 0;
+
+        try {
+            int width = Integer.parseInt(args[1]);
+            int height = Integer.parseInt(args[2]);
+            int lanes = Integer.parseInt(args[3]);
+            int n = Integer.parseInt(args[4]);
+            int d = Integer.parseInt(args[5]);
+            int vehicles = Integer.parseInt(args[6]);
+            seconds = Integer.parseInt(args[7]);
+            int workers = Runtime.getRuntime().availableProcessors();
+            Supplier<AdmissionPolicy> policy = AlternatePolicy::new;
+
+            for (int i = 8; i < args.length; i++) {
+                if (args[i].startsWith("platoon=")) {
+                    String limits[] = args[i].substring(8).split(",");
+                    int maxVehicles = Integer.parseInt(limits[0]);
+                    long maxMillis = Long.parseLong(limits[1]);
+                    policy = () -> new PlatoonPolicy(maxVehicles, maxMillis);
+                } else {
+                    workers = Integer.parseInt(args[i]);
+                }
+            }
+
+            if (width < 2 || height < 2 || lanes < 1 || n < 2) {
+                throw new IllegalArgumentException();
+            }
+
+            network = new RoadNetwork(width, height, lanes, n, vehicles, d, workers, policy);
+        } catch (Exception e) {
+            System.out.println("Expected integer inputs network width height lanes n d vehicles seconds, optionally followed by workers and platoon=K,T");
+            System.exit(-1);
+        }
+
+        System.out.println("Starting network of " + network.roads.length + " roads");
+
+        Thread t = new Thread(network);
+        long start = System.nanoTime();
+        t.start();
+
+        long lastMoves = 0;
+        long lastHops = 0;
+        long lastTrips = 0;
+
+        for (int i = 0; i < seconds; i++) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            long nowMoves = network.moves.sum();
+            long nowHops = network.hops.sum();
+            long nowTrips = network.trips.sum();
+
+            System.out.printf("moves/s: %d, roads travelled/s: %d, trips/s: %d, parked: %d%n", nowMoves - lastMoves, nowHops - lastHops,
+                nowTrips - lastTrips, network.parkedTrips.sum());
+
+            lastMoves = nowMoves;
+            lastHops = nowHops;
+            lastTrips = nowTrips;
+        }
+
+        network.stop();
+
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d ticks in %.1f s (%.0f ticks/s), %d trips%n", network.ticks, elapsed, network.ticks / elapsed, network.trips.sum());
+    }
+
+    // discrete event entry point: java TrafficSimulation.java events n s d seconds [seed=<seed>] [platoon=K,T]
+    // simulates the given number of seconds of traffic as fast as possible and prints the measures of the benchmark
+    private static void events(String args[]) {
+        EventSimulation simulation = null;
+
+        try {
+            int n = Integer.parseInt(args[1]);
+            int s = Integer.parseInt(args[2]);
+            int d = Integer.parseInt(args[3]);
+            long seconds = Long.parseLong(args[4]);
+            long seed = System.nanoTime();
+            AdmissionPolicy policy = new AlternatePolicy();
+
+            for (int i = 5; i < args.length; i++) {
+                if (args[i].startsWith("seed=")) {
+                    seed = Long.parseLong(args[i].substring(5));
+                } else if (args[i].startsWith("platoon=")) {
+                    String limits[] = args[i].substring(8).split(",");
+                    policy = new PlatoonPolicy(Integer.parseInt(limits[0]), Long.parseLong(limits[1]));
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+
+            if (n <= 2 || d <= 0 || seconds <= 0) {
+                throw new IllegalArgumentException();
+            }
+
+            simulation = new EventSimulation(n, d, s, Direction.LEFT, policy, TimeUnit.SECONDS.toNanos(seconds), seed);
+        } catch (Exception e) {
+            System.out.println("Expected integer inputs events n s d seconds, optionally followed by seed=<seed> and platoon=K,T");
+            System.exit(-1);
+        }
+
+        long start = System.nanoTime();
+        simulation.run();
+        double wall = (System.nanoTime() - start) / 1e9;
+
+        double simulated = simulation.now / 1e9;
+        double switchMillis = simulation.switches == 0 ? 0 : simulation.switchLatencyNanos / 1e6 / simulation.switches;
+        double occupancy = 100.0 * simulation.roadNanos / simulation.now / simulation.roadSegments;
+        long entered = simulation.exited + simulation.backlog();
+
+        System.out.printf("simulated %.0f s in %.2f s (%.0fx real time), %d events (%.0f events/s)%n", simulated, wall, simulated / wall,
+            simulation.events, simulation.events / wall);
+        System.out.printf("policy: %s, arrivals/s: %.1f, exits/s: %.1f, backlog: %d, switches/s: %.1f, switchMs: %.2f%n", simulation.policy,
+            simulation.spawned / simulated, simulation.exited / simulated, simulation.backlog(), simulation.switches / simulated, switchMillis);
+        System.out.printf("occupancy: %.1f%%, meanWaitMs: %.1f, maxWaitMs: %d%n", occupancy,
+            entered == 0 ? 0 : simulation.waitNanos / 1e6 / entered, simulation.maxWaitNanos / 1_000_000);
+    }
+
+    // program entry point: java TrafficSimulation.java n s d [threads | virtual | pooled=<workers>] [monitor | conditions] [platoon=K,T]
+    // platoon=K,T admits at most K vehicles or T ms per direction while the other direction waits, instead of alternating
+    // quiet turns off the per vehicle console output, report=<seconds> prints a summary of the statistics every period
+    // or java TrafficSimulation.java bench seconds n d workers s1 s2 ... to run the execution mode benchmark
+    // or java TrafficSimulation.java network width height lanes n d vehicles seconds to run a road network
+    // or java TrafficSimulation.java events n s d seconds to simulate the road on a simulated clock
     public static void main(String [] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("network")) {
+            network(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("events")) {
+            events(args);
+            return;
+        }
+
         // default values to satisfy compiler (will be overwritten on successful input parse)
         int n = 5;
         int s = 25;
         int d = 15;
+        ExecutionMode mode = ExecutionMode.THREADS;
+        RoadControl control = RoadControl.CONDITIONS;
+        AdmissionPolicy policy = new AlternatePolicy();
+        int workers = 0;
+        boolean verbose = true;
+        long reportSeconds = 0;
     
         // parse command line arguments : n > 2, s > 20, d > 10 in that order
         try {
@@ -287,13 +2048,40 @@ public class TrafficSimulation implements Runnable {
             if (d <= 10) {
                 throw new IllegalArgumentException();
             }
+
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].equals("virtual")) {
+                    mode = ExecutionMode.VIRTUAL;
+                } else if (args[i].startsWith("pooled=")) {
+                    mode = ExecutionMode.POOLED;
+                    workers = Integer.parseInt(args[i].substring(7));
+                } else if (args[i].equals("monitor")) {
+                    control = RoadControl.MONITOR;
+                } else if (args[i].equals("conditions")) {
+                    control = RoadControl.CONDITIONS;
+                } else if (args[i].startsWith("platoon=")) {
+                    String limits[] = args[i].substring(8).split(",");
+                    policy = new PlatoonPolicy(Integer.parseInt(limits[0]), Long.parseLong(limits[1]));
+                } else if (args[i].equals("quiet")) {
+                    verbose = false;
+                } else if (args[i].startsWith("report=")) {
+                    reportSeconds = Long.parseLong(args[i].substring(7));
+                } else if (!args[i].equals("threads")) {
+                    throw new IllegalArgumentException();
+                }
+            }
         } catch (Exception e) {
-            System.out.println("Invalid command line inputs. n > 2, s > 20, d > 10 in that order. They must be integers");
+            System.out.println("Invalid command line inputs. n > 2, s > 20, d > 10 in that order. They must be integers, optionally followed by threads, virtual or pooled=<workers>, monitor or conditions, platoon=K,T, quiet and report=<seconds>");
             System.exit(-1);
         }
 
         // if parse is successful, begin simulation
-        TrafficSimulation simulation = new TrafficSimulation(n, d, s, Direction.LEFT);
+        TrafficSimulation simulation = new TrafficSimulation(n, d, s, Direction.LEFT, mode, workers, control, policy);
+        simulation.verbose = verbose;
+
+        if (reportSeconds > 0) {
+            new Thread(simulation.new StatisticsReporter(TimeUnit.SECONDS.toMillis(reportSeconds))).start();
+        }
 
         Thread t = new Thread(simulation);
         t.start();
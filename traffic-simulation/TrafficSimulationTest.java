@@ -0,0 +1,68 @@
+/*
+ *  Regression test for the hand over of the road under the CONDITIONS control.
+ *  With a platoon of one vehicle, the following used to leave the road empty with three vehicles waiting for good:
+ *      - L1 enters, R2 and R3 wait for it
+ *      - L1 leaves: the road switches to right and wakes one vehicle, R2 enters and R3 keeps waiting
+ *      - R2 leaves with nobody waiting on the left, so nobody woke R3
+ *      - L4 arrives and waits for R3, R5 arrives and waits because the phase of the right is used up
+ *  Every vehicle must now leave the road. Expected syntax is java TrafficSimulationTest.java, exits with 1 on failure
+ */
+
+public class TrafficSimulationTest {
+    // arrival time in ms and direction of each vehicle, see above
+    private static final long ARRIVALS[] = { 0, 10, 20, 300, 310 };
+    private static final TrafficSimulation.Direction DIRECTIONS[] = {
+        TrafficSimulation.Direction.LEFT, TrafficSimulation.Direction.RIGHT, TrafficSimulation.Direction.RIGHT,
+        TrafficSimulation.Direction.LEFT, TrafficSimulation.Direction.RIGHT
+    };
+
+    private static final int SEGMENTS = 5;
+    private static final int STEP_MILLIS = 15;
+    private static final long TIMEOUT_MILLIS = 3000;
+
+    // runs the arrivals on platform or virtual threads, true if every vehicle left the road in time
+    private static boolean platoonDrains(boolean virtual) throws InterruptedException {
+        TrafficSimulation simulation = new TrafficSimulation(SEGMENTS, STEP_MILLIS, 0, TrafficSimulation.Direction.LEFT,
+            virtual ? TrafficSimulation.ExecutionMode.VIRTUAL : TrafficSimulation.ExecutionMode.THREADS, 0,
+            TrafficSimulation.RoadControl.CONDITIONS, new TrafficSimulation.PlatoonPolicy(1, 100000));
+        simulation.verbose = false;
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < ARRIVALS.length; i++) {
+            Thread.sleep(Math.max(0, start + ARRIVALS[i] - System.currentTimeMillis()));
+
+            TrafficSimulation.Vehicle v = simulation.new Vehicle(DIRECTIONS[i], DIRECTIONS[i] == TrafficSimulation.Direction.LEFT ? SEGMENTS - 1 : 0);
+
+            if (virtual) {
+                Thread.ofVirtual().start(v);
+            } else {
+                new Thread(v).start();
+            }
+        }
+
+        while (simulation.exited.sum() < ARRIVALS.length && System.currentTimeMillis() - start < TIMEOUT_MILLIS) {
+            Thread.sleep(10);
+        }
+
+        boolean drained = simulation.exited.sum() == ARRIVALS.length;
+
+        // releases the vehicles still waiting if the test failed
+        simulation.stop();
+
+        return drained;
+    }
+
+    public static void main(String args[]) throws InterruptedException {
+        boolean passed = true;
+
+        for (boolean virtual : new boolean[] { false, true }) {
+            boolean drained = platoonDrains(virtual);
+            passed &= drained;
+
+            System.out.println((virtual ? "virtual" : "threads") + ": " + (drained ? "PASS" : "FAIL, vehicles left waiting on an empty road"));
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+}